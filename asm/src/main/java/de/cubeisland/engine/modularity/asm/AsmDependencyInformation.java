@@ -63,6 +63,8 @@ public abstract class AsmDependencyInformation implements DependencyInformation
     private final ModularityClassLoader classLoader;
     private Map<String, InjectionPoint> injectionPoints = new HashMap<String, InjectionPoint>();
     private Set<Dependency> dependencies = new HashSet<Dependency>();
+    private Set<Dependency> required;
+    private Set<Dependency> optional;
 
     public AsmDependencyInformation(TypeCandidate candidate, Set<ConstructorCandidate> constructors)
     {
@@ -149,12 +151,40 @@ public abstract class AsmDependencyInformation implements DependencyInformation
 
     private Dependency getIdentifier(TypeReference type, AnnotationCandidate version, boolean required)
     {
-        return new BasicDependency(type.getReferencedClass(), version != null ? version.property("value").toString() : null, required);
+        return new BasicDependency(type.getReferencedClass(), getVersion(version), required);
+    }
+
+    private static String getVersion(AnnotationCandidate version)
+    {
+        if (version == null)
+        {
+            return null;
+        }
+        String range = version.property("range");
+        if (range != null && !range.isEmpty())
+        {
+            return range;
+        }
+        return getRevision(version); // any version if no revision was set
+    }
+
+    /**
+     * Returns the revision of a Version annotation
+     *
+     * @param version the Version annotation
+     *
+     * @return the revision or null if it was not set
+     */
+    static String getRevision(AnnotationCandidate version)
+    {
+        Object value = version.property("value");
+        return value == null || ((Number)value).intValue() == -1 ? null : value.toString();
     }
 
     void addRequiredDependency(TypeReference type, AnnotationCandidate version)
     {
         dependencies.add(getIdentifier(type, version, true));
+        required = null;
     }
 
     @Override
@@ -190,23 +220,9 @@ public abstract class AsmDependencyInformation implements DependencyInformation
     @Override
     public Set<Dependency> requiredDependencies()
     {
-        Set<Dependency> required = new HashSet<Dependency>();
-        for (InjectionPoint point : injectionPoints.values())
-        {
-            for (Dependency dependency : point.getDependencies())
-            {
-                if (dependency.required())
-                {
-                    required.add(dependency);
-                }
-            }
-        }
-        for (Dependency dependency : dependencies)
+        if (required == null)
         {
-            if (dependency.required())
-            {
-                required.add(dependency);
-            }
+            required = collectDependencies(true);
         }
         return required;
     }
@@ -214,25 +230,34 @@ public abstract class AsmDependencyInformation implements DependencyInformation
     @Override
     public Set<Dependency> optionalDependencies()
     {
-        Set<Dependency> optional = new HashSet<Dependency>();
+        if (optional == null)
+        {
+            optional = collectDependencies(false);
+        }
+        return optional;
+    }
+
+    private Set<Dependency> collectDependencies(boolean required)
+    {
+        Set<Dependency> result = new HashSet<Dependency>();
         for (InjectionPoint point : injectionPoints.values())
         {
             for (Dependency dependency : point.getDependencies())
             {
-                if (!dependency.required())
+                if (dependency.required() == required)
                 {
-                    optional.add(dependency);
+                    result.add(dependency);
                 }
             }
         }
         for (Dependency dependency : dependencies)
         {
-            if (!dependency.required())
+            if (dependency.required() == required)
             {
-                optional.add(dependency);
+                result.add(dependency);
             }
         }
-        return optional;
+        return Collections.unmodifiableSet(result);
     }
 
     @Override
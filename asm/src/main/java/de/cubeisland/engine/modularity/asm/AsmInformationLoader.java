@@ -33,10 +33,12 @@ import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -76,6 +78,9 @@ public class AsmInformationLoader implements InformationLoader
     private final Map<String, TypeCandidate> knownTypes = new HashMap<String, TypeCandidate>();
 
     private Modularity modularity;
+    private InjectorGenerator injectorGenerator;
+    private ClassLoaderGrouping grouping;
+    private final Map<String, ModularityClassLoader> groups = new HashMap<String, ModularityClassLoader>();
 
     public Set<DependencyInformation> loadInformation(Set<File> files)
     {
@@ -127,6 +132,7 @@ public class AsmInformationLoader implements InformationLoader
             File[] files = source.listFiles();
             if (files != null)
             {
+                Arrays.sort(files); // Same ClassLoaders in the same order on every start
                 for (File file : files)
                 {
                     if (deep || !file.isDirectory()) // do not search recursively
@@ -148,8 +154,22 @@ public class AsmInformationLoader implements InformationLoader
             LinkedHashSet<Dependency> dependencies = new LinkedHashSet<Dependency>();
             if (source.getName().endsWith(".jar"))
             {
-                classLoader = new ModularityClassLoader(modularity, source.toURI().toURL(), dependencies,
-                                                        modularity.getClass().getClassLoader());
+                String group = grouping == null ? null : grouping.getGroup(source);
+                classLoader = group == null ? null : groups.get(group);
+                if (classLoader == null)
+                {
+                    classLoader = new ModularityClassLoader(modularity, source.toURI().toURL(),
+                                                            new LinkedHashSet<Dependency>(),
+                                                            modularity.getClass().getClassLoader());
+                    if (group != null)
+                    {
+                        groups.put(group, classLoader);
+                    }
+                }
+                else
+                {
+                    classLoader.addSource(source.toURI().toURL());
+                }
             }
 
             // Sort candidates and add additional Information
@@ -182,6 +202,10 @@ public class AsmInformationLoader implements InformationLoader
 
             for (DependencyInformation info : result)
             {
+                if (injectorGenerator != null)
+                {
+                    injectorGenerator.install((AsmDependencyInformation)info, knownTypes.get(info.getClassName()));
+                }
                 dependencies.addAll(info.requiredDependencies());
                 dependencies.addAll(info.optionalDependencies());
                 if (info instanceof ModuleMetadata)
@@ -189,6 +213,10 @@ public class AsmInformationLoader implements InformationLoader
                     dependencies.addAll(((ModuleMetadata)info).loadAfter());
                 }
             }
+            if (classLoader != null)
+            {
+                classLoader.addDependencies(dependencies);
+            }
 
             return result;
         }
@@ -199,6 +227,19 @@ public class AsmInformationLoader implements InformationLoader
         }
     }
 
+    @Override
+    public void unload(ClassLoader classLoader)
+    {
+        for (Iterator<TypeCandidate> it = knownTypes.values().iterator(); it.hasNext(); )
+        {
+            if (it.next().getClassLoader() == classLoader)
+            {
+                it.remove();
+            }
+        }
+        groups.values().remove(classLoader);
+    }
+
     private void checkFor(TypeCandidate candidate, Class<? extends Annotation> annotation, Class<? extends TypeCandidate> candidateType,
                           Class<? extends AsmDependencyInformation> metaClass, Set<DependencyInformation> result) throws NoSuchMethodException, IllegalAccessException, InvocationTargetException, InstantiationException
     {
@@ -241,7 +282,11 @@ public class AsmInformationLoader implements InformationLoader
                 // Version info:
                 if (candidate.isAnnotatedWith(Version.class))
                 {
-                    version = candidate.getAnnotation(Version.class).property("value").toString();
+                    String revision = AsmDependencyInformation.getRevision(candidate.getAnnotation(Version.class));
+                    if (revision != null)
+                    {
+                        version = revision;
+                    }
                 }
 
                 // SourceVersion for Module
@@ -340,10 +385,31 @@ public class AsmInformationLoader implements InformationLoader
         return list;
     }
 
+    /**
+     * Enables generating Injectors for loaded information instead of injecting reflectively
+     *
+     * @param cache the directory to cache the generated classes in or null
+     */
+    public void generateInjectors(File cache)
+    {
+        this.injectorGenerator = new InjectorGenerator(cache);
+    }
+
+    /**
+     * Sets the policy grouping jars loaded from now on into shared ClassLoaders
+     *
+     * @param grouping the grouping or null to load every jar with its own ClassLoader
+     */
+    public void setGrouping(ClassLoaderGrouping grouping)
+    {
+        this.grouping = grouping;
+    }
+
     public static Modularity newModularity(Modularity modularity)
     {
         AsmInformationLoader loader = new AsmInformationLoader();
         modularity.init(loader);
+        modularity.setProxyFactory(new AsmProxyFactory());
         loader.modularity = modularity;
         return modularity;
     }
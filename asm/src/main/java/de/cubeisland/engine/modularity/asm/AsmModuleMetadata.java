@@ -45,6 +45,7 @@ public class AsmModuleMetadata extends AsmDependencyInformation implements Modul
     private final String description;
     private final Set<Dependency> loadAfter = new LinkedHashSet<Dependency>();;
     private final Set<String> authors = null; // TODO from maven?
+    private final boolean lazy;
 
     public AsmModuleMetadata(ClassCandidate candidate)
     {
@@ -52,6 +53,8 @@ public class AsmModuleMetadata extends AsmDependencyInformation implements Modul
         AnnotationCandidate moduleInfo = candidate.getAnnotation(ModuleInfo.class);
         this.name = moduleInfo.property("name");
         this.description = moduleInfo.property("description");
+        Boolean lazy = moduleInfo.property("lazy");
+        this.lazy = lazy != null && lazy;
         for (String name : moduleInfo.<List<String>>property("loadAfter"))
         {
             this.loadAfter.add(new BasicDependency(name, null));
@@ -79,6 +82,12 @@ public class AsmModuleMetadata extends AsmDependencyInformation implements Modul
         return loadAfter;
     }
 
+    @Override
+    public boolean isLazy()
+    {
+        return lazy;
+    }
+
     @Override
     public String getActualClass()
     {
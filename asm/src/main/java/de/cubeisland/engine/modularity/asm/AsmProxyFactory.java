@@ -0,0 +1,340 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.asm;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import de.cubeisland.engine.modularity.core.service.BasicInvocationHandler;
+import de.cubeisland.engine.modularity.core.service.ProxyFactory;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates service proxies calling the current implementation directly instead of going through reflection.
+ * While the {@link BasicInvocationHandler} is observing calls they are timed and recorded without allocating.
+ */
+public class AsmProxyFactory implements ProxyFactory
+{
+    private static final String SUFFIX = "$$Proxy";
+    private static final String HANDLER = Type.getInternalName(BasicInvocationHandler.class);
+    private static final String HANDLER_DESC = Type.getDescriptor(BasicInvocationHandler.class);
+    private static final String METHODS_DESC = Type.getDescriptor(Method[].class);
+    private static final String RECORD_DESC = "(Ljava/lang/Object;Ljava/lang/reflect/Method;JLjava/lang/Throwable;)V";
+
+    private final ClassValue<Constructor<?>> proxies = new ClassValue<Constructor<?>>()
+    {
+        @Override
+        protected Constructor<?> computeValue(Class<?> service)
+        {
+            return generate(service);
+        }
+    };
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T newProxy(Class<T> service, BasicInvocationHandler handler)
+    {
+        Constructor<?> constructor = proxies.get(service);
+        if (constructor == null)
+        {
+            return null;
+        }
+        try
+        {
+            return (T)constructor.newInstance(handler);
+        }
+        catch (InstantiationException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (InvocationTargetException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Constructor<?> generate(Class<?> service)
+    {
+        if (!service.isInterface() || !Modifier.isPublic(service.getModifiers()))
+        {
+            return null;
+        }
+        ClassLoader parent = service.getClassLoader();
+        try
+        {
+            if (parent == null || Class.forName(BasicInvocationHandler.class.getName(), false, parent) != BasicInvocationHandler.class)
+            {
+                return null; // The proxy could not link against the handler
+            }
+            String name = service.getName() + SUFFIX;
+            List<Method> methods = methods(service);
+            Class<?> proxyClass = new ProxyClassLoader(parent).define(name, generate(name, service, methods));
+            proxyClass.getField("methods").set(null, methods.toArray(new Method[methods.size()]));
+            return proxyClass.getConstructor(BasicInvocationHandler.class);
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (NoSuchFieldException e)
+        {
+            throw new IllegalStateException(e);
+        }
+        catch (IllegalAccessException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the methods to forward. The methods of Object are forwarded just like java.lang.reflect.Proxy does
+     */
+    private static List<Method> methods(Class<?> service) throws NoSuchMethodException
+    {
+        List<Method> methods = new ArrayList<Method>();
+        Set<String> signatures = new HashSet<String>();
+        for (Method method : service.getMethods())
+        {
+            if (!Modifier.isStatic(method.getModifiers()) && signatures.add(method.getName() + Type.getMethodDescriptor(method)))
+            {
+                methods.add(method);
+            }
+        }
+        for (Method method : new Method[]{Object.class.getMethod("equals", Object.class),
+                                          Object.class.getMethod("hashCode"),
+                                          Object.class.getMethod("toString")})
+        {
+            if (signatures.add(method.getName() + Type.getMethodDescriptor(method)))
+            {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    static byte[] generate(String name, Class<?> service, List<Method> methods)
+    {
+        String self = name.replace('.', '/');
+        String owner = Type.getInternalName(service);
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES)
+        {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2)
+            {
+                return "java/lang/Object"; // Frames never merge distinct types, so avoid loading classes here
+            }
+        };
+        cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, self, null, "java/lang/Object", new String[]{owner});
+        cw.visitField(ACC_PRIVATE | ACC_FINAL, "handler", HANDLER_DESC, null, null).visitEnd();
+        cw.visitField(ACC_PUBLIC | ACC_STATIC, "methods", METHODS_DESC, null, null).visitEnd(); // set after definition
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "(" + HANDLER_DESC + ")V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitFieldInsn(PUTFIELD, self, "handler", HANDLER_DESC);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int i = 0; i < methods.size(); i++)
+        {
+            Method method = methods.get(i);
+            boolean itf = method.getDeclaringClass() != Object.class;
+            forward(cw, self, itf ? owner : "java/lang/Object", itf, i, method);
+        }
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void forward(ClassWriter cw, String self, String owner, boolean itf, int index, Method method)
+    {
+        String name = method.getName();
+        String desc = Type.getMethodDescriptor(method);
+        Type[] arguments = Type.getArgumentTypes(desc);
+        Type returnType = Type.getReturnType(desc);
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, name, desc, null, exceptions(method));
+        mv.visitCode();
+
+        Label observed = new Label();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, self, "handler", HANDLER_DESC);
+        mv.visitMethodInsn(INVOKEVIRTUAL, HANDLER, "isObserved", "()Z", false);
+        mv.visitJumpInsn(IFNE, observed);
+
+        // return handler.getCurrent().method(args);
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, self, "handler", HANDLER_DESC);
+        mv.visitMethodInsn(INVOKEVIRTUAL, HANDLER, "getCurrent", "()Ljava/lang/Object;", false);
+        call(mv, owner, itf, name, desc, arguments);
+        mv.visitInsn(returnType.getOpcode(IRETURN));
+
+        // Observed: times the same call and records it
+        mv.visitLabel(observed);
+        int impl = 1;
+        for (Type argument : arguments)
+        {
+            impl += argument.getSize();
+        }
+        int start = impl + 1;
+        int result = start + 2;
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, self, "handler", HANDLER_DESC);
+        mv.visitMethodInsn(INVOKEVIRTUAL, HANDLER, "getCurrent", "()Ljava/lang/Object;", false);
+        mv.visitVarInsn(ASTORE, impl);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        mv.visitVarInsn(LSTORE, start);
+
+        Label tryStart = new Label();
+        Label tryEnd = new Label();
+        Label failed = new Label();
+        mv.visitTryCatchBlock(tryStart, tryEnd, failed, "java/lang/Throwable");
+        mv.visitLabel(tryStart);
+        mv.visitVarInsn(ALOAD, impl);
+        call(mv, owner, itf, name, desc, arguments);
+        mv.visitLabel(tryEnd);
+        if (returnType.getSort() != Type.VOID)
+        {
+            mv.visitVarInsn(returnType.getOpcode(ISTORE), result);
+        }
+        record(mv, self, index, impl, start, -1);
+        if (returnType.getSort() != Type.VOID)
+        {
+            mv.visitVarInsn(returnType.getOpcode(ILOAD), result);
+        }
+        mv.visitInsn(returnType.getOpcode(IRETURN));
+
+        mv.visitLabel(failed);
+        mv.visitVarInsn(ASTORE, result);
+        record(mv, self, index, impl, start, result);
+        mv.visitVarInsn(ALOAD, result);
+        mv.visitInsn(ATHROW);
+
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /**
+     * Calls the method on the implementation on top of the stack
+     */
+    private static void call(MethodVisitor mv, String owner, boolean itf, String name, String desc, Type[] arguments)
+    {
+        if (itf)
+        {
+            mv.visitTypeInsn(CHECKCAST, owner);
+        }
+        int slot = 1;
+        for (Type type : arguments)
+        {
+            mv.visitVarInsn(type.getOpcode(ILOAD), slot);
+            slot += type.getSize();
+        }
+        mv.visitMethodInsn(itf ? INVOKEINTERFACE : INVOKEVIRTUAL, owner, name, desc, itf);
+    }
+
+    /**
+     * handler.record(impl, methods[index], System.nanoTime() - start, failure);
+     */
+    private static void record(MethodVisitor mv, String self, int index, int impl, int start, int failure)
+    {
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitFieldInsn(GETFIELD, self, "handler", HANDLER_DESC);
+        mv.visitVarInsn(ALOAD, impl);
+        mv.visitFieldInsn(GETSTATIC, self, "methods", METHODS_DESC);
+        push(mv, index);
+        mv.visitInsn(AALOAD);
+        mv.visitMethodInsn(INVOKESTATIC, "java/lang/System", "nanoTime", "()J", false);
+        mv.visitVarInsn(LLOAD, start);
+        mv.visitInsn(LSUB);
+        if (failure < 0)
+        {
+            mv.visitInsn(ACONST_NULL);
+        }
+        else
+        {
+            mv.visitVarInsn(ALOAD, failure);
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, HANDLER, "record", RECORD_DESC, false);
+    }
+
+    private static void push(MethodVisitor mv, int value)
+    {
+        if (value <= 5)
+        {
+            mv.visitInsn(ICONST_0 + value);
+        }
+        else
+        {
+            mv.visitIntInsn(value <= Byte.MAX_VALUE ? BIPUSH : SIPUSH, value);
+        }
+    }
+
+    private static String[] exceptions(Method method)
+    {
+        Class<?>[] types = method.getExceptionTypes();
+        String[] exceptions = new String[types.length];
+        for (int i = 0; i < types.length; i++)
+        {
+            exceptions[i] = Type.getInternalName(types[i]);
+        }
+        return exceptions;
+    }
+
+    /**
+     * Defines generated proxies next to the ClassLoader of their service
+     */
+    private static final class ProxyClassLoader extends ClassLoader
+    {
+        private ProxyClassLoader(ClassLoader parent)
+        {
+            super(parent);
+        }
+
+        private Class<?> define(String name, byte[] bytecode)
+        {
+            return defineClass(name, bytecode, 0, bytecode.length);
+        }
+    }
+}
@@ -25,6 +25,7 @@ package de.cubeisland.engine.modularity.asm;
 import de.cubeisland.engine.modularity.asm.marker.ServiceImpl;
 import de.cubeisland.engine.modularity.asm.marker.Version;
 import de.cubeisland.engine.modularity.asm.meta.TypeReference;
+import de.cubeisland.engine.modularity.asm.meta.candidate.AnnotationCandidate;
 import de.cubeisland.engine.modularity.asm.meta.candidate.ClassCandidate;
 import de.cubeisland.engine.modularity.core.graph.meta.ServiceImplementationMetadata;
 import org.objectweb.asm.Type;
@@ -35,13 +36,17 @@ import org.objectweb.asm.Type;
 public class AsmServiceImplementationMetadata extends AsmDependencyInformation implements ServiceImplementationMetadata
 {
     private final String serviceName;
+    private final int priority;
 
     public AsmServiceImplementationMetadata(ClassCandidate candidate)
     {
         super(candidate, candidate.getConstructors());
 
-        Type type = candidate.getAnnotation(ServiceImpl.class).property("value");
+        AnnotationCandidate serviceImpl = candidate.getAnnotation(ServiceImpl.class);
+        Type type = serviceImpl.property("value");
         this.serviceName = type.getClassName();
+        Integer priority = serviceImpl.property("priority");
+        this.priority = priority == null ? 0 : priority;
         addRequiredDependency(new TypeReference(serviceName), candidate.getAnnotation(Version.class));
         ensureIsImplemented(candidate);
     }
@@ -67,4 +72,10 @@ public class AsmServiceImplementationMetadata extends AsmDependencyInformation i
     {
         return serviceName;
     }
+
+    @Override
+    public int getPriority()
+    {
+        return priority;
+    }
 }
@@ -0,0 +1,461 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.asm;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Modifier;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.inject.Inject;
+import de.cubeisland.engine.modularity.asm.meta.TypeReference;
+import de.cubeisland.engine.modularity.asm.meta.candidate.ClassCandidate;
+import de.cubeisland.engine.modularity.asm.meta.candidate.ConstructorCandidate;
+import de.cubeisland.engine.modularity.asm.meta.candidate.FieldCandidate;
+import de.cubeisland.engine.modularity.asm.meta.candidate.MethodCandidate;
+import de.cubeisland.engine.modularity.asm.meta.candidate.TypeCandidate;
+import de.cubeisland.engine.modularity.core.ConstructorInjection;
+import de.cubeisland.engine.modularity.core.FieldsInjection;
+import de.cubeisland.engine.modularity.core.InjectionPoint;
+import de.cubeisland.engine.modularity.core.Injector;
+import de.cubeisland.engine.modularity.core.MethodInjection;
+import de.cubeisland.engine.modularity.core.ModularityClassLoader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates an {@link Injector} for each class that constructs it, sets its fields and calls its methods directly.
+ * <p>
+ * Only public members of public classes are generated. Every other InjectionPoint keeps injecting reflectively.
+ * The generated bytecode is optionally cached in a directory.
+ */
+public class InjectorGenerator
+{
+    private static final String SUFFIX = "$$Injector";
+    private static final int FORMAT = 1; // change whenever the generated code changes to invalidate cached classes
+    private static final String INJECT_DESC = Type.getMethodDescriptor(Type.getType(Object.class), Type.INT_TYPE,
+                                                                       Type.getType(Object.class),
+                                                                       Type.getType(Object[].class));
+    private static final Map<String, Type> PRIMITIVES = new HashMap<String, Type>();
+
+    static
+    {
+        for (Type type : new Type[]{Type.VOID_TYPE, Type.BOOLEAN_TYPE, Type.CHAR_TYPE, Type.BYTE_TYPE,
+                                    Type.SHORT_TYPE, Type.INT_TYPE, Type.FLOAT_TYPE, Type.LONG_TYPE, Type.DOUBLE_TYPE})
+        {
+            PRIMITIVES.put(type.getClassName(), type);
+        }
+    }
+
+    private final File cache;
+
+    /**
+     * @param cache the directory to cache generated bytecode in or null
+     */
+    public InjectorGenerator(File cache)
+    {
+        this.cache = cache;
+    }
+
+    /**
+     * Generates an Injector for the InjectionPoints of given information and sets it where possible
+     *
+     * @param info      the information
+     * @param candidate the candidate the information was created from
+     */
+    public void install(AsmDependencyInformation info, TypeCandidate candidate)
+    {
+        ModularityClassLoader classLoader = info.getClassLoader();
+        if (classLoader == null || !(candidate instanceof ClassCandidate))
+        {
+            return;
+        }
+        if (!Modifier.isPublic(candidate.getModifiers()) || Modifier.isAbstract(candidate.getModifiers()))
+        {
+            return;
+        }
+
+        String owner = internalName(candidate.getName());
+        List<InjectionPoint> points = new ArrayList<InjectionPoint>();
+        List<Step> steps = new ArrayList<Step>();
+        for (InjectionPoint point : info.injectionPoints().values())
+        {
+            Step step = plan(owner, point, (ClassCandidate)candidate);
+            if (step != null)
+            {
+                points.add(point);
+                steps.add(step);
+            }
+        }
+        if (steps.isEmpty())
+        {
+            return;
+        }
+
+        String name = candidate.getName() + SUFFIX;
+        Injector injector = new GeneratedInjector(classLoader, name, load(name, steps));
+        for (int i = 0; i < points.size(); i++)
+        {
+            points.get(i).setInjector(injector, i);
+        }
+    }
+
+    private static Step plan(String owner, InjectionPoint point, ClassCandidate candidate)
+    {
+        int dependencies = point.getDependencies().size();
+        if (point instanceof ConstructorInjection)
+        {
+            for (ConstructorCandidate constructor : candidate.getConstructors())
+            {
+                boolean matches = dependencies == 0 ? constructor.getParameterTypes().isEmpty() : constructor.isAnnotatedWith(Inject.class);
+                if (matches)
+                {
+                    String desc = methodDescriptor("void", constructor.getParameterTypes());
+                    return accessible(constructor.getModifiers(), false) && desc != null ? new Step(Step.CONSTRUCT, owner, "<init>", desc) : null;
+                }
+            }
+        }
+        else if (point instanceof FieldsInjection)
+        {
+            Step step = new Step(Step.SET, owner, null, null);
+            for (String name : ((FieldsInjection)point).getFieldNames())
+            {
+                FieldCandidate field = findField(candidate, name);
+                if (field == null || !accessible(field.getModifiers(), true) || injectable(field.getType()) == null)
+                {
+                    return null;
+                }
+                step.add(name, injectable(field.getType()).getDescriptor());
+            }
+            return step;
+        }
+        else if (point instanceof MethodInjection)
+        {
+            for (MethodCandidate method : candidate.getMethods())
+            {
+                if (method.getName().equals(((MethodInjection)point).getName())
+                    && method.getParameterTypes().size() == dependencies)
+                {
+                    String desc = methodDescriptor(method.getReturnType().getReferencedClass(), method.getParameterTypes());
+                    return accessible(method.getModifiers(), false) && desc != null ? new Step(Step.CALL, owner, method.getName(), desc) : null;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static FieldCandidate findField(ClassCandidate candidate, String name)
+    {
+        for (FieldCandidate field : candidate.getFields())
+        {
+            if (field.getName().equals(name))
+            {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    private static boolean accessible(int modifiers, boolean field)
+    {
+        return Modifier.isPublic(modifiers) && !Modifier.isStatic(modifiers) && !(field && Modifier.isFinal(modifiers));
+    }
+
+    private static String methodDescriptor(String returnType, List<TypeReference> parameters)
+    {
+        Type[] types = new Type[parameters.size()];
+        for (int i = 0; i < types.length; i++)
+        {
+            types[i] = injectable(parameters.get(i));
+            if (types[i] == null)
+            {
+                return null;
+            }
+        }
+        return Type.getMethodDescriptor(typeOf(returnType), types);
+    }
+
+    /**
+     * Returns the type of given reference or null when it cannot be injected from an Object
+     */
+    private static Type injectable(TypeReference reference)
+    {
+        Type type = typeOf(reference.getReferencedClass());
+        return type.getSort() == Type.OBJECT || type.getSort() == Type.ARRAY ? type : null;
+    }
+
+    private static Type typeOf(String className)
+    {
+        StringBuilder dimensions = new StringBuilder();
+        while (className.endsWith("[]"))
+        {
+            dimensions.append('[');
+            className = className.substring(0, className.length() - 2);
+        }
+        Type type = PRIMITIVES.get(className);
+        if (type == null)
+        {
+            type = Type.getObjectType(internalName(className));
+        }
+        return dimensions.length() == 0 ? type : Type.getType(dimensions + type.getDescriptor());
+    }
+
+    private static String internalName(String className)
+    {
+        return className.replace('.', '/');
+    }
+
+    private byte[] load(String name, List<Step> steps)
+    {
+        if (cache == null)
+        {
+            return generate(name, steps);
+        }
+        File file = new File(cache, name + "." + Integer.toHexString((FORMAT + " " + steps).hashCode()) + ".class");
+        if (file.isFile())
+        {
+            try
+            {
+                return Files.readAllBytes(file.toPath());
+            }
+            catch (IOException ignored)
+            {
+                // generate again
+            }
+        }
+        byte[] bytecode = generate(name, steps);
+        try
+        {
+            Files.createDirectories(cache.toPath());
+            Files.write(file.toPath(), bytecode);
+        }
+        catch (IOException ignored)
+        {
+            // The cache is optional
+        }
+        return bytecode;
+    }
+
+    static byte[] generate(String name, List<Step> steps)
+    {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
+        cw.visit(V1_7, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName(name), null, "java/lang/Object",
+                 new String[]{Type.getInternalName(Injector.class)});
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "inject", INJECT_DESC, null, null);
+        mv.visitCode();
+        Label[] labels = new Label[steps.size()];
+        for (int i = 0; i < labels.length; i++)
+        {
+            labels[i] = new Label();
+        }
+        Label unknown = new Label();
+        mv.visitVarInsn(ILOAD, 1);
+        mv.visitTableSwitchInsn(0, labels.length - 1, unknown, labels);
+        for (int i = 0; i < labels.length; i++)
+        {
+            mv.visitLabel(labels[i]);
+            steps.get(i).generate(mv);
+        }
+        mv.visitLabel(unknown);
+        mv.visitTypeInsn(NEW, "java/lang/IllegalArgumentException");
+        mv.visitInsn(DUP);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/IllegalArgumentException", "<init>", "()V", false);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /**
+     * The generated code for a single InjectionPoint
+     */
+    static final class Step
+    {
+        static final int CONSTRUCT = 0;
+        static final int SET = 1;
+        static final int CALL = 2;
+
+        private final int kind;
+        private final String owner;
+        private final List<String> names = new ArrayList<String>();
+        private final List<String> descs = new ArrayList<String>();
+
+        Step(int kind, String owner, String name, String desc)
+        {
+            this.kind = kind;
+            this.owner = owner;
+            if (name != null)
+            {
+                add(name, desc);
+            }
+        }
+
+        void add(String name, String desc)
+        {
+            names.add(name);
+            descs.add(desc);
+        }
+
+        void generate(MethodVisitor mv)
+        {
+            switch (kind)
+            {
+                case CONSTRUCT:
+                    mv.visitTypeInsn(NEW, owner);
+                    mv.visitInsn(DUP);
+                    loadArguments(mv, Type.getArgumentTypes(descs.get(0)));
+                    mv.visitMethodInsn(INVOKESPECIAL, owner, names.get(0), descs.get(0), false);
+                    mv.visitInsn(ARETURN);
+                    return;
+                case SET:
+                    for (int i = 0; i < names.size(); i++)
+                    {
+                        mv.visitVarInsn(ALOAD, 2);
+                        mv.visitTypeInsn(CHECKCAST, owner);
+                        loadArgument(mv, i, Type.getType(descs.get(i)));
+                        mv.visitFieldInsn(PUTFIELD, owner, names.get(i), descs.get(i));
+                    }
+                    break;
+                case CALL:
+                    mv.visitVarInsn(ALOAD, 2);
+                    mv.visitTypeInsn(CHECKCAST, owner);
+                    loadArguments(mv, Type.getArgumentTypes(descs.get(0)));
+                    mv.visitMethodInsn(INVOKEVIRTUAL, owner, names.get(0), descs.get(0), false);
+                    int size = Type.getReturnType(descs.get(0)).getSize();
+                    if (size != 0)
+                    {
+                        mv.visitInsn(size == 2 ? POP2 : POP);
+                    }
+                    break;
+            }
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitInsn(ARETURN);
+        }
+
+        private static void loadArguments(MethodVisitor mv, Type[] types)
+        {
+            for (int i = 0; i < types.length; i++)
+            {
+                loadArgument(mv, i, types[i]);
+            }
+        }
+
+        private static void loadArgument(MethodVisitor mv, int index, Type type)
+        {
+            mv.visitVarInsn(ALOAD, 3);
+            if (index <= 5)
+            {
+                mv.visitInsn(ICONST_0 + index);
+            }
+            else
+            {
+                mv.visitIntInsn(index <= Byte.MAX_VALUE ? BIPUSH : SIPUSH, index);
+            }
+            mv.visitInsn(AALOAD);
+            mv.visitTypeInsn(CHECKCAST, type.getInternalName());
+        }
+
+        @Override
+        public String toString()
+        {
+            return kind + " " + owner + " " + names + " " + descs;
+        }
+    }
+
+    /**
+     * Defines the generated class on first use
+     */
+    private static final class GeneratedInjector implements Injector
+    {
+        private final ModularityClassLoader classLoader;
+        private final String name;
+        private byte[] bytecode;
+        private volatile Injector delegate;
+
+        private GeneratedInjector(ModularityClassLoader classLoader, String name, byte[] bytecode)
+        {
+            this.classLoader = classLoader;
+            this.name = name;
+            this.bytecode = bytecode;
+        }
+
+        @Override
+        public Object inject(int point, Object instance, Object[] dependencies)
+        {
+            Injector injector = delegate;
+            if (injector == null)
+            {
+                injector = define();
+            }
+            return injector.inject(point, instance, dependencies);
+        }
+
+        private synchronized Injector define()
+        {
+            if (delegate == null)
+            {
+                try
+                {
+                    delegate = (Injector)classLoader.define(name, bytecode).getConstructor().newInstance();
+                    bytecode = null;
+                }
+                catch (InstantiationException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                catch (IllegalAccessException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                catch (InvocationTargetException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+                catch (NoSuchMethodException e)
+                {
+                    throw new IllegalStateException(e);
+                }
+            }
+            return delegate;
+        }
+    }
+}
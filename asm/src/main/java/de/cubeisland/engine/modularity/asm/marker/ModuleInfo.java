@@ -54,4 +54,11 @@ public @interface ModuleInfo
      * @return the dependencies to load before this
      */
     String[] loadAfter() default {};
+
+    /**
+     * Returns whether the module is only activated when first used
+     *
+     * @return true if lazy
+     */
+    boolean lazy() default false;
 }
@@ -40,4 +40,11 @@ public @interface ServiceImpl
      * @return the implemented Interface
      */
     Class value();
+
+    /**
+     * Returns the priority of the implementation. Implementations with higher priority are preferred
+     *
+     * @return the priority
+     */
+    int priority() default 0;
 }
@@ -28,16 +28,25 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Marks the annotated Class to be the specified version or the annotated Field to require the specified version
+ * Marks the annotated Class to be the specified version or the annotated Field to require the specified version.
+ * Fields may declare a version range instead e.g. {@code @Version(range = ">=2.1 <3")}
  */
 @Retention(RetentionPolicy.CLASS)
 @Target({ElementType.TYPE, ElementType.FIELD})
 public @interface Version
 {
     /**
-     * Returns the revision
+     * Returns the revision. The default -1 declares no revision.
      *
      * @return the revision
      */
-    int value();
+    int value() default -1;
+
+    /**
+     * Returns the required version range. Takes precedence over {@link #value()}
+     *
+     * @return the version range
+     * @see de.cubeisland.engine.modularity.core.graph.VersionRange
+     */
+    String range() default "";
 }
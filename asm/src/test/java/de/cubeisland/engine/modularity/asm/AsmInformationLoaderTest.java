@@ -27,6 +27,9 @@ import java.io.IOException;
 import java.util.Set;
 import de.cubeisland.engine.modularity.asm.info.module1.BasicService;
 import de.cubeisland.engine.modularity.asm.info.module1.BasicModule;
+import de.cubeisland.engine.modularity.asm.marker.Version;
+import de.cubeisland.engine.modularity.asm.meta.TypeReference;
+import de.cubeisland.engine.modularity.asm.meta.candidate.AnnotationCandidate;
 import de.cubeisland.engine.modularity.core.BasicModularity;
 import de.cubeisland.engine.modularity.core.graph.BasicDependency;
 import de.cubeisland.engine.modularity.core.graph.DependencyInformation;
@@ -37,6 +40,7 @@ import org.junit.Test;
 import static de.cubeisland.engine.modularity.asm.ASMModuleInfoParserTest.getPath;
 import static de.cubeisland.engine.modularity.asm.AsmInformationLoader.newModularity;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 public class AsmInformationLoaderTest
@@ -79,4 +83,15 @@ public class AsmInformationLoaderTest
             }
         }
     }
+
+    @Test
+    public void testRevision()
+    {
+        AnnotationCandidate version = new AnnotationCandidate(new TypeReference(Version.class.getName()));
+        assertNull(AsmDependencyInformation.getRevision(version)); // bare @Version
+        version.addProperty("range", ">=1");
+        assertNull(AsmDependencyInformation.getRevision(version));
+        version.addProperty("value", 2);
+        assertEquals("2", AsmDependencyInformation.getRevision(version));
+    }
 }
@@ -22,23 +22,59 @@
  */
 package de.cubeisland.engine.modularity.asm;
 
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
+import javax.inject.Inject;
+import javax.inject.Provider;
 import de.cubeisland.engine.modularity.asm.info.module1.BasicModule;
+import de.cubeisland.engine.modularity.asm.info.module1.BasicService;
 import de.cubeisland.engine.modularity.asm.info.module2.ComplexModule;
 import de.cubeisland.engine.modularity.asm.info.module3.BasicModule2;
 import de.cubeisland.engine.modularity.asm.info.module3.ProvidedService;
 import de.cubeisland.engine.modularity.asm.info.module3.ProvidedServiceImpl;
 import de.cubeisland.engine.modularity.core.BasicModularity;
+import de.cubeisland.engine.modularity.core.ClassPreloader;
+import de.cubeisland.engine.modularity.core.Handle;
+import de.cubeisland.engine.modularity.core.InjectionPoint;
+import de.cubeisland.engine.modularity.core.LifeCycle;
+import de.cubeisland.engine.modularity.core.LifeCycle.State;
+import de.cubeisland.engine.modularity.core.Maybe;
 import de.cubeisland.engine.modularity.core.Modularity;
+import de.cubeisland.engine.modularity.core.ModularityClassLoader;
+import de.cubeisland.engine.modularity.core.graph.BasicDependency;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
+import de.cubeisland.engine.modularity.core.service.LatencyAwareStrategy;
+import de.cubeisland.engine.modularity.core.service.MethodMetrics;
+import de.cubeisland.engine.modularity.core.service.ServiceProvider;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
 
+import static de.cubeisland.engine.modularity.asm.ASMModuleInfoParserTest.getValue;
 import static de.cubeisland.engine.modularity.asm.AsmInformationLoader.newModularity;
 import static org.junit.Assert.*;
 
@@ -48,8 +84,13 @@ public class AsmModularityTest
     public static final File JAR_TARGET_DIR = new File("target/test-classes/");
     public static final File CLASS_SOURCE_DIR = new File("target/test-classes/de/cubeisland/engine/modularity/asm/info/");
 
+    private static final String SHARED_CLASS = "de/cubeisland/engine/modularity/asm/shared/SharedClass";
+
     private static Modularity modularity;
 
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
     @BeforeClass
     public static void setup() throws IOException
     {
@@ -106,13 +147,527 @@ public class AsmModularityTest
         ProvidedService started = modularity.provide(ProvidedService.class);  // Starts Service + Impl
         assertNotNull(started);
         assertEquals(ProvidedServiceImpl.stripper, started.provideString());
+        assertFalse(Proxy.isProxyClass(started.getClass())); // generated by AsmProxyFactory
         assertNull(modularity.provide(ProvidedServiceImpl.class)); // Returns null. Not allowed to query for implementation
     }
 
+    @Test
+    public void testObservedService()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File("target/test-classes/"));
+        modularity.setSelectionStrategy(ProvidedService.class, new LatencyAwareStrategy());
+        modularity.setMetricsEnabled(ProvidedService.class, true);
+        ProvidedService service = modularity.provide(ProvidedService.class);
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(ProvidedServiceImpl.stripper, service.provideString());
+        }
+        Map<Method, MethodMetrics.Snapshot> snapshot = modularity.getMetrics(ProvidedService.class).snapshot();
+        assertEquals(1, snapshot.size());
+        MethodMetrics.Snapshot metrics = snapshot.values().iterator().next();
+        assertEquals(100, metrics.getCalls());
+        assertEquals(0, metrics.getErrors());
+        assertTrue(metrics.getPercentile(99) >= metrics.getPercentile(50));
+    }
+
+    @Test
+    public void testLazyModule()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.setLazy(BasicModule2.class.getName(), true);
+        modularity.load(new File("target/test-classes/"));
+        modularity.enableModules();
+
+        LifeCycle module = modularity.getLifecycle(BasicModule2.class);
+        assertFalse(module.isIn(State.ENABLED));
+
+        assertEquals(ProvidedServiceImpl.stripper, modularity.provide(ProvidedService.class).provideString());
+        assertTrue(module.isIn(State.ENABLED)); // loaded with the service implementation
+    }
+
+    @Test
+    public void testIdleEviction()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File("target/test-classes/"));
+        modularity.enableModules();
+
+        LifeCycle module = modularity.getLifecycle(BasicModule2.class);
+        assertEquals(0, modularity.evictIdleModules(0, TimeUnit.NANOSECONDS)); // Starts tracking
+        assertTrue(modularity.evictIdleModules(0, TimeUnit.NANOSECONDS) > 0);
+        assertTrue(module.isIn(State.LOADED));
+        assertFalse(module.isInstantiated());
+
+        assertEquals(ProvidedServiceImpl.stripper, modularity.provide(ProvidedService.class).provideString());
+        assertTrue(module.isIn(State.ENABLED)); // reactivated with the service implementation
+        assertEquals(0, modularity.evictIdleModules(0, TimeUnit.NANOSECONDS)); // used since the last sweep
+    }
+
+    @Test
+    public void testProxyCallsPreventEviction()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File("target/test-classes/"));
+        modularity.enableModules();
+
+        LifeCycle module = modularity.getLifecycle(BasicModule2.class);
+        ProvidedService service = modularity.provide(ProvidedService.class);
+        modularity.evictIdleModules(0, TimeUnit.NANOSECONDS); // Starts tracking
+        for (int i = 0; i < 3; i++)
+        {
+            assertEquals(ProvidedServiceImpl.stripper, service.provideString()); // Only the proxy is used
+            modularity.evictIdleModules(0, TimeUnit.NANOSECONDS);
+            assertTrue(module.isIn(State.ENABLED));
+        }
+
+        modularity.evictIdleModules(0, TimeUnit.NANOSECONDS);
+        assertFalse(module.isIn(State.ENABLED)); // not called since the last sweep
+    }
+
+    @Test
+    public void testCascadingDisable()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File("target/test-classes/"));
+        modularity.enableModules();
+
+        LifeCycle service = modularity.getLifecycle(BasicService.class);
+        LifeCycle module = modularity.getLifecycle(BasicModule2.class);
+        assertTrue(module.isIn(State.ENABLED));
+
+        service.disable();
+        assertTrue(service.isIn(State.DISABLED));
+        assertTrue(module.isIn(State.DISABLED)); // requires the service
+
+        // Using or enabling everything does not bring back what was disabled on purpose
+        modularity.provide(BasicService.class);
+        modularity.enableModules();
+        assertTrue(service.isIn(State.DISABLED));
+        assertTrue(module.isIn(State.DISABLED));
+
+        service.enable();
+        assertTrue(service.isIn(State.ENABLED));
+        assertTrue(module.isIn(State.ENABLED));
+    }
+
+    @Test
+    public void testEnableLoaded() throws Exception
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File(JAR_TARGET_DIR, "module2.jar")); // ComplexModule optionally depends on BasicService from module1
+        modularity.load(new File(JAR_TARGET_DIR, "module3.jar")); // BasicModule2 requires BasicService from module1
+        modularity.enableModules();
+        LifeCycle module = modularity.getLifecycle(BasicModule2.class);
+        assertFalse(module.isIn(State.ENABLED));
+        Maybe<BasicService> maybe = getValue(modularity.provide(ComplexModule.class), "anOptionalService");
+        assertFalse(maybe.isAvailable());
+
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.enableLoaded();
+        assertTrue(module.isIn(State.ENABLED));
+        assertTrue(modularity.getLifecycle(BasicModule.class).isIn(State.ENABLED));
+        assertTrue(maybe.isAvailable());
+    }
+
+    @Test
+    public void testMaybeSubscribers() throws Exception
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File(JAR_TARGET_DIR, "module2.jar")); // ComplexModule optionally depends on BasicService from module1
+        modularity.enableModules();
+        Maybe<BasicService> maybe = getValue(modularity.provide(ComplexModule.class), "anOptionalService");
+        CountDownLatch available = new CountDownLatch(3);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Maybe.Callback<BasicService> callback = countDown(available);
+            maybe.onAvailable(callback);
+            maybe.onAvailable(callback); // Subscribed already
+            maybe.onAvailable(countDown(available), executor);
+
+            modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+            modularity.enableLoaded();
+            assertTrue(maybe.isAvailable());
+            maybe.onAvailable(countDown(available)); // Runs right away as the service is available already
+            assertTrue(available.await(5, TimeUnit.SECONDS));
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testMaybeResubscribe() throws Exception
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File(JAR_TARGET_DIR, "module2.jar"));
+        modularity.enableModules();
+        LifeCycle module = modularity.getLifecycle(ComplexModule.class);
+        Maybe<BasicService> maybe = getValue(modularity.provide(ComplexModule.class), "anOptionalService");
+        CountDownLatch available = new CountDownLatch(2);
+        Maybe.Callback<BasicService> removed = new Maybe.Callback<BasicService>()
+        {
+            @Override
+            public void react(BasicService dep)
+            {
+                fail("Unsubscribed");
+            }
+        };
+
+        maybe.onAvailable(countDown(available));
+        maybe.onAvailable(removed);
+        maybe.unsubscribe(removed);
+
+        // Enabling again subscribes a new callback like an @Enable method would
+        module.disable();
+        module.enable();
+        assertTrue(module.isIn(State.ENABLED));
+        maybe.onAvailable(countDown(available));
+
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.enableLoaded();
+        assertTrue(maybe.isAvailable());
+        assertEquals(1, available.getCount());
+    }
+
+    private static Maybe.Callback<BasicService> countDown(final CountDownLatch latch)
+    {
+        return new Maybe.Callback<BasicService>()
+        {
+            @Override
+            public void react(BasicService dep)
+            {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testStaleHandle()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.enableModules();
+        Handle<BasicModule> handle = modularity.handle(BasicModule.class);
+        LifeCycle lifeCycle = modularity.getLifecycle(BasicModule.class);
+        BasicModule first = handle.get();
+        assertSame(first, handle.get());
+
+        lifeCycle.disable();
+        assertSame(first, handle.get()); // Modules are provided while instantiated
+        assertTrue(lifeCycle.isIn(State.DISABLED));
+        lifeCycle.enable();
+        assertSame(first, handle.get());
+
+        assertEquals(0, modularity.evictIdleModules(0, TimeUnit.NANOSECONDS)); // Starts tracking
+        assertTrue(modularity.evictIdleModules(0, TimeUnit.NANOSECONDS) > 0);
+        assertFalse(lifeCycle.isInstantiated());
+        BasicModule second = handle.get(); // Enables the module again
+        assertNotSame(first, second);
+        assertTrue(lifeCycle.isIn(State.ENABLED));
+        assertSame(second, handle.get());
+
+        modularity.unload(new BasicDependency(BasicModule.class.getName(), null));
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.enableLoaded();
+        BasicModule third = handle.get();
+        assertNotSame(second, third);
+        assertSame(modularity.provide(BasicModule.class), third);
+        assertNotSame(lifeCycle, modularity.getLifecycle(BasicModule.class));
+    }
+
+    @Test
+    public void testUnload() throws Exception
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.load(new File(JAR_TARGET_DIR, "module3.jar")); // BasicModule2 requires BasicService from module1
+        modularity.enableModules();
+        Dependency module1 = new BasicDependency(BasicModule.class.getName(), null);
+        Dependency module3 = new BasicDependency(BasicModule2.class.getName(), null);
+        WeakReference<ClassLoader> loader1 = classLoader(modularity, BasicModule.class);
+        WeakReference<ClassLoader> loader3 = classLoader(modularity, BasicModule2.class);
+
+        try
+        {
+            modularity.unload(module1);
+            fail("BasicService is still required");
+        }
+        catch (IllegalStateException expected)
+        {
+        }
+
+        modularity.unload(module3);
+        assertNull(modularity.getGraph().getNode(module3));
+        assertTrue(modularity.getLifecycle(BasicModule.class).isIn(State.ENABLED));
+        modularity.unload(module1);
+        assertTrue(modularity.getGraph().getNodes().isEmpty());
+
+        for (int i = 0; i < 50 && (loader1.get() != null || loader3.get() != null); i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader1.get());
+        assertNull(loader3.get());
+    }
+
+    private static WeakReference<ClassLoader> classLoader(Modularity modularity, Class<?> module)
+    {
+        ClassLoader classLoader = modularity.getLifecycle(module).getInformation().getClassLoader();
+        assertTrue(classLoader instanceof ModularityClassLoader);
+        return new WeakReference<ClassLoader>(classLoader);
+    }
+
+    @Test
+    public void testSharedLibraries() throws Exception
+    {
+        File dir = new File(JAR_TARGET_DIR, "shared");
+        dir.mkdirs();
+        writeSharedJar(new File(dir, "shared1.jar"), "module1");
+        writeSharedJar(new File(dir, "shared3.jar"), "module3");
+        Modularity modularity = newModularity(new BasicModularity());
+        modularity.setShareLibraries(true);
+        modularity.load(dir); // Loaded together so the identical package is shared
+        modularity.enableModules();
+        WeakReference<ClassLoader> loader1 = classLoader(modularity, BasicModule.class);
+        WeakReference<ClassLoader> loader3 = classLoader(modularity, BasicModule2.class);
+        WeakReference<ClassLoader> shared = sharedClassLoader(loader1.get(), loader3.get());
+
+        modularity.unload(new BasicDependency(BasicModule2.class.getName(), null));
+        modularity.unload(new BasicDependency(BasicModule.class.getName(), null));
+        for (int i = 0; i < 50 && (loader1.get() != null || loader3.get() != null || shared.get() != null); i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(loader1.get());
+        assertNull(loader3.get());
+        assertNull(shared.get());
+    }
+
+    private static WeakReference<ClassLoader> sharedClassLoader(ClassLoader loader1, ClassLoader loader3) throws Exception
+    {
+        Class<?> clazz = loader1.loadClass(SHARED_CLASS.replace('/', '.'));
+        assertSame(clazz, loader3.loadClass(SHARED_CLASS.replace('/', '.')));
+        assertNotSame(loader1, clazz.getClassLoader());
+        assertNotSame(loader3, clazz.getClassLoader());
+        return new WeakReference<ClassLoader>(clazz.getClassLoader());
+    }
+
+    /**
+     * Writes a jar containing the classes of a test module and a class not on the classpath
+     */
+    private static void writeSharedJar(File jar, String module) throws IOException
+    {
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        String pack = "de/cubeisland/engine/modularity/asm/info/" + module + "/";
+        for (File file : new File(CLASS_SOURCE_DIR, module).listFiles())
+        {
+            out.putNextEntry(new JarEntry(pack + file.getName()));
+            RandomAccessFile f = new RandomAccessFile(file, "r");
+            byte[] b = new byte[(int)f.length()];
+            f.readFully(b);
+            f.close();
+            out.write(b);
+            out.closeEntry();
+        }
+        ClassWriter cw = new ClassWriter(0);
+        cw.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, SHARED_CLASS, null, "java/lang/Object", null);
+        cw.visitEnd();
+        out.putNextEntry(new JarEntry(SHARED_CLASS + ".class"));
+        out.write(cw.toByteArray());
+        out.closeEntry();
+        out.close();
+    }
+
+    @Test
+    public void testClassPreloader() throws Exception
+    {
+        File jar = temp.newFile("module1.jar");
+        writeSharedJar(jar, "module1");
+        File lists = temp.newFolder("preload");
+        File stale = new File(lists, "module1-0.classes"); // of another version of the jar
+        assertTrue(stale.createNewFile());
+        String name = SHARED_CLASS.replace('/', '.');
+        Dependency module = new BasicDependency(BasicModule.class.getName(), null);
+
+        Modularity modularity = newModularity(new BasicModularity());
+        ClassPreloader preloader = new ClassPreloader(lists, 1, TimeUnit.HOURS, 1);
+        modularity.setPreloader(preloader);
+        modularity.load(jar);
+        WeakReference<ClassLoader> loader = classLoader(modularity, BasicModule.class);
+        loader.get().loadClass(name); // Defined by the module and recorded
+        modularity.unload(module); // Saves the list right away
+
+        File[] files = lists.listFiles();
+        assertEquals(1, files.length);
+        assertFalse(stale.exists());
+        assertEquals(Collections.singletonList(name), readLines(files[0]));
+        for (int i = 0; i < 50 && loader.get() != null; i++)
+        {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull("The preloader keeps the unloaded ClassLoader", loader.get());
+
+        assertEquals(0, preloader.getPreloadedCount());
+        modularity.load(jar);
+        for (int i = 0; i < 500 && preloader.getPreloadedCount() == 0; i++)
+        {
+            Thread.sleep(10);
+        }
+        assertEquals("Not preloaded", 1, preloader.getPreloadedCount());
+
+        modularity.setPreloader(null); // Saves the list, preloaded classes keep their place
+        assertEquals(Collections.singletonList(name), readLines(files[0]));
+        modularity.unload(module);
+    }
+
+    private static List<String> readLines(File file) throws IOException
+    {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                lines.add(line);
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        return lines;
+    }
+
+    @Test
+    public void testGroupedClassLoaders()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        ((AsmInformationLoader)modularity.getLoader()).setGrouping(new ClassLoaderGrouping()
+        {
+            @Override
+            public String getGroup(File jar)
+            {
+                return jar.getName().equals("module2.jar") ? null : "basics";
+            }
+        });
+        modularity.load(new File(JAR_TARGET_DIR, "module1.jar"));
+        modularity.load(new File(JAR_TARGET_DIR, "module2.jar"));
+        modularity.load(new File(JAR_TARGET_DIR, "module3.jar"));
+        modularity.enableModules();
+
+        LifeCycle module1 = modularity.getLifecycle(BasicModule.class);
+        LifeCycle module3 = modularity.getLifecycle(BasicModule2.class);
+        assertTrue(module1.isIn(State.ENABLED));
+        assertTrue(module3.isIn(State.ENABLED));
+        assertNotSame(module1, module3); // Separate graph nodes
+        assertSame(module1.getInformation().getClassLoader(), module3.getInformation().getClassLoader());
+        assertNotSame(module1.getInformation().getClassLoader(),
+                      modularity.getLifecycle(ComplexModule.class).getInformation().getClassLoader());
+    }
+
+    @Test
+    public void testConcurrentProvide() throws Exception
+    {
+        final Modularity modularity = newModularity(new BasicModularity());
+        modularity.load(new File("target/test-classes/"));
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<ComplexModule>> results = new ArrayList<Future<ComplexModule>>();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int i = 0; i < 8; i++)
+        {
+            results.add(executor.submit(new Callable<ComplexModule>()
+            {
+                @Override
+                public ComplexModule call() throws Exception
+                {
+                    start.await();
+                    return modularity.provide(ComplexModule.class);
+                }
+            }));
+        }
+        start.countDown();
+        ComplexModule module = results.get(0).get();
+        assertNotNull(module);
+        for (Future<ComplexModule> result : results)
+        {
+            assertSame(module, result.get());
+        }
+        executor.shutdown();
+    }
+
+    @Test
+    public void testGeneratedInjectors()
+    {
+        File cache = new File(JAR_TARGET_DIR, "injectors");
+        Modularity modularity = newModularity(new BasicModularity());
+        ((AsmInformationLoader)modularity.getLoader()).generateInjectors(cache);
+        modularity.load(new File("target/test-classes/"));
+        modularity.enableModules();
+
+        LifeCycle module = modularity.getLifecycle(ComplexModule.class);
+        assertTrue(module.isIn(State.ENABLED));
+        Map<String, InjectionPoint> points = module.getInformation().injectionPoints();
+        assertTrue(points.get(State.INSTANTIATED.name(0)).hasInjector());
+        assertTrue(points.get(State.SETUP.name(0)).hasInjector());
+        assertFalse(points.get(State.INSTANTIATED.name(1)).hasInjector()); // private fields are injected reflectively
+        assertNotNull(((ComplexModule)module.getInstance()).file);
+        assertTrue(cache.list().length > 0);
+    }
+
     @Test
     public void testProvidedService()
     {
         modularity.register(String.class, "providedStringService");
         assertEquals("providedStringService", modularity.provide(String.class));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testProviderBackedService()
+    {
+        final AtomicInteger instances = new AtomicInteger();
+        ServiceProvider<Runnable> service = new ServiceProvider<Runnable>(Runnable.class, new Provider<Runnable>()
+        {
+            @Override
+            public Runnable get()
+            {
+                instances.incrementAndGet();
+                return new Thread();
+            }
+        });
+        service.get().run();
+        service.update();
+        service.get().run();
+        service.get().run();
+        assertEquals(3, instances.get()); // Every call gets a new instance from the Provider
+    }
+
+    @Test
+    public void testMissThenRegister()
+    {
+        Modularity modularity = newModularity(new BasicModularity());
+        assertNull(modularity.provide(FileConsumer.class)); // File cannot be injected
+        File file = new File("consumed");
+        modularity.register(File.class, file);
+        FileConsumer consumer = modularity.provide(FileConsumer.class);
+        assertNotNull(consumer);
+        assertSame(file, consumer.file);
+    }
+
+    public static class FileConsumer
+    {
+        private final File file;
+
+        @Inject
+        public FileConsumer(File file)
+        {
+            this.file = file;
+        }
+    }
+}
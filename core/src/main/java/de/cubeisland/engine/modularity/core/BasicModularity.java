@@ -23,19 +23,31 @@
 package de.cubeisland.engine.modularity.core;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Inject;
 import javax.inject.Provider;
+import de.cubeisland.engine.modularity.core.LifeCycle.State;
 import de.cubeisland.engine.modularity.core.graph.BasicDependency;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 import de.cubeisland.engine.modularity.core.graph.DependencyGraph;
@@ -44,18 +56,63 @@ import de.cubeisland.engine.modularity.core.graph.Node;
 import de.cubeisland.engine.modularity.core.graph.meta.ModuleMetadata;
 import de.cubeisland.engine.modularity.core.graph.meta.ServiceDefinitionMetadata;
 import de.cubeisland.engine.modularity.core.graph.meta.ServiceImplementationMetadata;
+import de.cubeisland.engine.modularity.core.service.InvocationMetrics;
+import de.cubeisland.engine.modularity.core.service.ProxyFactory;
+import de.cubeisland.engine.modularity.core.service.SelectionStrategy;
+import de.cubeisland.engine.modularity.core.service.ServiceProvider;
 
 public class BasicModularity implements Modularity
 {
+    private static final int MISSES = 1024; // Capacity of each negative cache
+
+    private static final Comparator<ServiceImplementationMetadata> BY_PRIORITY = new Comparator<ServiceImplementationMetadata>()
+    {
+        @Override
+        public int compare(ServiceImplementationMetadata o1, ServiceImplementationMetadata o2)
+        {
+            if (o1.getPriority() != o2.getPriority())
+            {
+                return o1.getPriority() > o2.getPriority() ? -1 : 1;
+            }
+            return o1.getClassName().compareTo(o2.getClassName()); // Stable order for equal priorities
+        }
+    };
+
     private InformationLoader loader;
+    private volatile ProxyFactory proxyFactory;
+    private final Map<String, SelectionStrategy> strategies = new ConcurrentHashMap<String, SelectionStrategy>();
+    private final Set<String> metered = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> lazyModules = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Set<String> evicted = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final Map<Dependency, Long> lastAccess = new ConcurrentHashMap<Dependency, Long>();
     private final DependencyGraph graph = new DependencyGraph();
 
-    private final Map<Dependency, LifeCycle> lifeCycles = new HashMap<Dependency, LifeCycle>();
-    private final Map<Dependency, ModuleMetadata> moduleInfos = new HashMap<Dependency, ModuleMetadata>();
-    private final Map<Dependency, ServiceImplementationMetadata> serviceImpls = new HashMap<Dependency, ServiceImplementationMetadata>();
+    private final ConcurrentMap<Dependency, LifeCycle> lifeCycles = new ConcurrentHashMap<Dependency, LifeCycle>();
+    private final ConcurrentMap<Dependency, Object> creationLocks = new ConcurrentHashMap<Dependency, Object>();
+    private final Map<Dependency, ModuleMetadata> moduleInfos = new ConcurrentHashMap<Dependency, ModuleMetadata>();
+    private final Map<Dependency, ServiceImplementationMetadata> serviceImpls = new ConcurrentHashMap<Dependency, ServiceImplementationMetadata>();
+    private final Map<Dependency, LifeCycle> placeholders = new ConcurrentHashMap<Dependency, LifeCycle>();
+    private final List<Node> loadedNodes = new ArrayList<Node>(); // guarded by loadLock
+    private final Map<ModularityClassLoader, Set<String>> indexed = new HashMap<ModularityClassLoader, Set<String>>(); // guarded by loadLock
+    private final ConcurrentMap<String, List<ModularityClassLoader>> packages = new ConcurrentHashMap<String, List<ModularityClassLoader>>();
+    private final List<ModularityClassLoader> unindexed = new CopyOnWriteArrayList<ModularityClassLoader>();
+    private volatile SharedLibraries libraries;
+    private volatile ClassPreloader preloader;
+    private final NegativeCache<String, Boolean> missingClasses = new NegativeCache<String, Boolean>(MISSES);
+    private final NegativeCache<Dependency, Throwable> missingDependencies = new NegativeCache<Dependency, Throwable>(MISSES);
+    private final Object loadLock = new Object();
+    private final ClassValue<Handle> handles = new ClassValue<Handle>()
+    {
+        @Override
+        @SuppressWarnings("unchecked")
+        protected Handle computeValue(Class<?> type)
+        {
+            return new Handle(type, BasicModularity.this);
+        }
+    };
 
-    private final List<ModularityHandler> modularityHandlers = new ArrayList<ModularityHandler>();
-    private Map<Class<? extends Annotation>, PostInjectionHandler> postInjectionHandlers = new HashMap<Class<? extends Annotation>, PostInjectionHandler>();
+    private final List<ModularityHandler> modularityHandlers = new CopyOnWriteArrayList<ModularityHandler>();
+    private Map<Class<? extends Annotation>, PostInjectionHandler> postInjectionHandlers = new ConcurrentHashMap<Class<? extends Annotation>, PostInjectionHandler>();
 
     public void init(InformationLoader loader)
     {
@@ -91,63 +148,276 @@ public class BasicModularity implements Modularity
 
     private void addLoaded(Set<DependencyInformation> loaded)
     {
+        synchronized (loadLock)
+        {
+            addLoaded0(loaded);
+        }
+    }
+
+    private void addLoaded0(Set<DependencyInformation> loaded)
+    {
+        // New sources may contain what was missing before
+        missingClasses.clear();
+        missingDependencies.clear();
+        List<DependencyInformation> nodes = new ArrayList<DependencyInformation>(loaded.size());
+        Set<ModularityClassLoader> classLoaders = new LinkedHashSet<ModularityClassLoader>();
         for (DependencyInformation info : loaded)
         {
+            if (info.getClassLoader() != null)
+            {
+                classLoaders.add(info.getClassLoader());
+            }
             if (info instanceof ServiceImplementationMetadata)
             {
                 serviceImpls.put(info.getIdentifier(), ((ServiceImplementationMetadata)info));
             }
             else
             {
-                graph.addNode(info);
+                nodes.add(info);
                 if (info instanceof ModuleMetadata)
                 {
                     moduleInfos.put(info.getIdentifier(), (ModuleMetadata)info);
                 }
             }
         }
+        ClassPreloader preloader = this.preloader;
+        List<ModularityClassLoader> preloading = preloader == null ? null : new ArrayList<ModularityClassLoader>(classLoaders);
+        for (Iterator<ModularityClassLoader> it = classLoaders.iterator(); it.hasNext(); )
+        {
+            if (!index(it.next()))
+            {
+                it.remove(); // Registered before, jars were added to the group of this ClassLoader
+            }
+        }
+        SharedLibraries libraries = this.libraries;
+        if (libraries != null && !classLoaders.isEmpty())
+        {
+            libraries.register(classLoaders);
+        }
+        if (preloader != null)
+        {
+            for (ModularityClassLoader loader : preloading)
+            {
+                preloader.attach(loader);
+            }
+        }
+        List<Node> added = graph.addAll(nodes);
+        loadedNodes.addAll(added);
+        adoptPlaceholders(added);
+    }
+
+    /**
+     * Adds the packages of given ClassLoader to the index used to find classes across ClassLoaders.
+     * ClassLoaders grouping multiple jars are indexed again when jars were added.
+     *
+     * @return true if the ClassLoader was not indexed before
+     */
+    private boolean index(ModularityClassLoader classLoader)
+    {
+        Set<String> done = indexed.get(classLoader);
+        boolean added = done == null;
+        if (added)
+        {
+            done = new HashSet<String>();
+            indexed.put(classLoader, done);
+        }
+        Set<String> names = classLoader.getPackageNames();
+        if (names == null)
+        {
+            if (!unindexed.contains(classLoader))
+            {
+                unindexed.add(classLoader); // Has to be searched for every class
+            }
+            return added;
+        }
+        for (String name : names)
+        {
+            if (!done.add(name))
+            {
+                continue;
+            }
+            List<ModularityClassLoader> list = packages.get(name);
+            if (list == null)
+            {
+                list = new CopyOnWriteArrayList<ModularityClassLoader>();
+                List<ModularityClassLoader> existing = packages.putIfAbsent(name, list);
+                if (existing != null)
+                {
+                    list = existing;
+                }
+            }
+            list.add(classLoader);
+        }
+        return added;
+    }
+
+    private void unindex(ModularityClassLoader classLoader)
+    {
+        indexed.remove(classLoader);
+        unindexed.remove(classLoader);
+        for (Iterator<List<ModularityClassLoader>> it = packages.values().iterator(); it.hasNext(); )
+        {
+            List<ModularityClassLoader> list = it.next();
+            list.remove(classLoader);
+            if (list.isEmpty())
+            {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Replaces placeholders of optional dependencies that can now be resolved with the actual LifeCycle
+     */
+    private void adoptPlaceholders(List<Node> added)
+    {
+        if (placeholders.isEmpty())
+        {
+            return;
+        }
+        Set<String> names = new HashSet<String>();
+        for (Node node : added)
+        {
+            names.add(node.getInformation().getIdentifier().name());
+        }
+        for (Iterator<Entry<Dependency, LifeCycle>> it = placeholders.entrySet().iterator(); it.hasNext(); )
+        {
+            Entry<Dependency, LifeCycle> entry = it.next();
+            LifeCycle placeholder = entry.getValue();
+            if (!placeholder.isIn(State.NONE))
+            {
+                it.remove(); // Got provided in the meantime
+                continue;
+            }
+            if (names.contains(entry.getKey().name()) && graph.getNode(entry.getKey()) != null)
+            {
+                it.remove();
+                lifeCycles.remove(entry.getKey());
+                placeholder.transferMaybes(getLifecycle(entry.getKey()));
+            }
+        }
+    }
+
+    @Override
+    public void enableLoaded()
+    {
+        // Collect the loaded nodes and everything depending on them that is not enabled yet
+        Set<Node> delta = new LinkedHashSet<Node>();
+        LinkedList<Node> queue;
+        synchronized (loadLock)
+        {
+            queue = new LinkedList<Node>(loadedNodes);
+            loadedNodes.clear();
+        }
+        while (!queue.isEmpty())
+        {
+            Node node = queue.poll();
+            LifeCycle lifeCycle = lifeCycles.get(node.getInformation().getIdentifier());
+            if (lifeCycle != null && lifeCycle.isIn(State.ENABLED))
+            {
+                continue;
+            }
+            if (delta.add(node))
+            {
+                queue.addAll(node.getSuccessors());
+            }
+        }
+
+        for (Node node : delta)
+        {
+            Dependency dep = node.getInformation().getIdentifier();
+            LifeCycle lifeCycle = lifeCycles.get(dep);
+            if (!moduleInfos.containsKey(dep) && (lifeCycle == null || !lifeCycle.hasMaybes()))
+            {
+                continue; // Only modules and dependencies with waiting optional dependents get enabled
+            }
+            if (isLazy(node.getInformation()))
+            {
+                continue;
+            }
+            try
+            {
+                setup(dep);
+                enable(dep);
+            }
+            catch (MissingDependencyException e)
+            {
+                this.logError(e.getMessage(), e);
+            }
+            catch (IllegalStateException e)
+            {
+                // TODO
+                e.printStackTrace();
+            }
+        }
     }
 
     @Override
     public Class<?> findClass(String name, Set<Dependency> dependencies)
     {
-        if (name == null)
+        if (name == null || missingClasses.get(name) != null)
         {
             return null;
         }
-        Set<Dependency> checked = new HashSet<Dependency>();
-        Class clazz = findClass(name, checked, dependencies);
+        int generation = missingClasses.generation();
+        Class<?> clazz = searchClass(name, dependencies);
         if (clazz == null)
         {
-            clazz = findClass(name, checked, moduleInfos.keySet());
+            missingClasses.put(name, Boolean.TRUE, generation);
         }
         return clazz;
     }
 
-    private Class<?> findClass(String name, Set<Dependency> checked, Set<Dependency> dependencies)
+    private Class<?> searchClass(String name, Set<Dependency> dependencies)
     {
-        for (Dependency dep : dependencies)
+        // Only ClassLoaders containing the package can define the class
+        List<ModularityClassLoader> candidates = packages.get(JarSource.packageOf(name));
+        if (candidates == null && unindexed.isEmpty())
         {
-            if (checked.contains(dep))
+            return null;
+        }
+        Set<ModularityClassLoader> checked = new HashSet<ModularityClassLoader>();
+        for (Dependency dep : dependencies) // Search the dependencies first
+        {
+            Node node = graph.getNode(dep);
+            ModularityClassLoader classLoader = node == null ? null : node.getInformation().getClassLoader();
+            if (classLoader != null && (candidates != null && candidates.contains(classLoader)
+                || unindexed.contains(classLoader)))
             {
-                continue;
+                Class<?> clazz = findClass(name, classLoader, checked);
+                if (clazz != null)
+                {
+                    return clazz;
+                }
             }
-            checked.add(dep);
-            try
+        }
+        if (candidates != null)
+        {
+            for (ModularityClassLoader classLoader : candidates)
             {
-                Node node = graph.getNode(dep);
-                if (node != null)
+                Class<?> clazz = findClass(name, classLoader, checked);
+                if (clazz != null)
                 {
-                    return node.getInformation().getClassLoader().findClass(name, false);
+                    return clazz;
                 }
             }
-            catch (ClassNotFoundException ignored)
+        }
+        for (ModularityClassLoader classLoader : unindexed)
+        {
+            Class<?> clazz = findClass(name, classLoader, checked);
+            if (clazz != null)
             {
+                return clazz;
             }
         }
         return null;
     }
 
+    private static Class<?> findClass(String name, ModularityClassLoader classLoader, Set<ModularityClassLoader> checked)
+    {
+        return checked.add(classLoader) ? classLoader.findLocalClass(name) : null;
+    }
+
 
     @Override
     public LifeCycle getLifecycle(Dependency dep)
@@ -158,18 +428,7 @@ public class BasicModularity implements Modularity
             Node node = graph.getNode(dep);
             if (node == null)
             {
-                try // Try to construct the dependency ...
-                {
-                    Class clazz = Class.forName(dep.name());
-                    Object instance = inject(clazz); // Attempt to create instance
-                    lifeCycle = new LifeCycle(this).initProvided(instance); // Create Provided Lifecycle
-                    lifeCycles.put(dep, lifeCycle); // Register lifecycle for future use
-                    return lifeCycle;
-                }
-                catch (Exception e) // That did not go so well :/
-                {
-                    throw new MissingDependencyException("Dependency is not available " + dep.name(), e);
-                }
+                return constructLifecycle(dep);
             }
             lifeCycle = lifeCycles.get(node.getInformation().getIdentifier());
             if (lifeCycle == null)
@@ -177,20 +436,75 @@ public class BasicModularity implements Modularity
                 lifeCycle = new LifeCycle(this).load(node.getInformation());
                 if (node.getInformation() instanceof ServiceDefinitionMetadata)
                 {
+                    List<ServiceImplementationMetadata> impls = new ArrayList<ServiceImplementationMetadata>();
                     for (ServiceImplementationMetadata impl : serviceImpls.values())
                     {
                         if (impl.getActualClass().equals(node.getInformation().getActualClass()))
                         {
-                            lifeCycle.addImpl(new LifeCycle(this).load(impl));
+                            impls.add(impl);
                         }
                     }
+                    Collections.sort(impls, BY_PRIORITY);
+                    for (ServiceImplementationMetadata impl : impls)
+                    {
+                        lifeCycle.addImpl(new LifeCycle(this).load(impl));
+                    }
+                }
+                LifeCycle existing = lifeCycles.putIfAbsent(node.getInformation().getIdentifier(), lifeCycle);
+                if (existing != null)
+                {
+                    lifeCycle = existing; // Another thread was faster
                 }
-                lifeCycles.put(node.getInformation().getIdentifier(), lifeCycle);
             }
         }
         return lifeCycle;
     }
 
+    /**
+     * Constructs a dependency not known to the graph. Only one thread constructs per dependency
+     * while concurrent callers wait for it.
+     */
+    private LifeCycle constructLifecycle(Dependency dep)
+    {
+        Throwable missing = missingDependencies.get(dep);
+        if (missing != null)
+        {
+            throw new MissingDependencyException("Dependency is not available " + dep.name(), missing);
+        }
+        int generation = missingDependencies.generation();
+        Object lock = new Object();
+        Object existingLock = creationLocks.putIfAbsent(dep, lock);
+        synchronized (existingLock == null ? lock : existingLock)
+        {
+            LifeCycle lifeCycle = lifeCycles.get(dep);
+            if (lifeCycle != null)
+            {
+                return lifeCycle;
+            }
+            try // Try to construct the dependency ...
+            {
+                Class clazz = Class.forName(dep.name());
+                Object instance = inject(clazz); // Attempt to create instance
+                lifeCycle = new LifeCycle(this).initProvided(instance); // Create Provided Lifecycle
+                lifeCycles.put(dep, lifeCycle); // Register lifecycle for future use
+                return lifeCycle;
+            }
+            catch (ClassNotFoundException e) // Stays missing until new sources are loaded
+            {
+                missingDependencies.put(dep, e, generation);
+                throw new MissingDependencyException("Dependency is not available " + dep.name(), e);
+            }
+            catch (Exception e) // That did not go so well :/ Registering what is missing may fix it
+            {
+                throw new MissingDependencyException("Dependency is not available " + dep.name(), e);
+            }
+            finally
+            {
+                creationLocks.remove(dep);
+            }
+        }
+    }
+
 
     private LifeCycle setup(Dependency dep)
     {
@@ -207,7 +521,7 @@ public class BasicModularity implements Modularity
         LifeCycle lifecycle = getLifecycle(dep);
         try
         {
-            return lifecycle.enable();
+            return lifecycle.enable(false); // Modules disabled on purpose stay disabled
         }
         catch (Exception e)
         {
@@ -239,17 +553,17 @@ public class BasicModularity implements Modularity
     }
 
     @Override
-    @SuppressWarnings("unchecked")
+    public Collection<LifeCycle> getLifecycles()
+    {
+        return Collections.unmodifiableCollection(lifeCycles.values());
+    }
+
+    @Override
     public <T> T provide(Class<T> type)
     {
         try
         {
-            LifeCycle lifecycle = getLifecycle(new BasicDependency(type.getName(), null));
-            if (!lifecycle.isInstantiated())
-            {
-                lifecycle.enable();
-            }
-            return (T)lifecycle.getProvided(null);
+            return handle(type).get();
         }
         catch (MissingDependencyException ignored)
         {
@@ -257,6 +571,13 @@ public class BasicModularity implements Modularity
         }
     }
 
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> Handle<T> handle(Class<T> type)
+    {
+        return handles.get(type);
+    }
+
     public LifeCycle getLifecycle(Class type)
     {
         return getLifecycle(new BasicDependency(type.getName(), null));
@@ -267,6 +588,10 @@ public class BasicModularity implements Modularity
     {
         for (Dependency dep : moduleInfos.keySet())
         {
+            if (isLazy(moduleInfos.get(dep)))
+            {
+                continue;
+            }
             try
             {
                 setup(dep);
@@ -287,8 +612,16 @@ public class BasicModularity implements Modularity
     @Override
     public void enableModules()
     {
+        synchronized (loadLock)
+        {
+            loadedNodes.clear();
+        }
         for (Dependency dep : moduleInfos.keySet())
         {
+            if (isLazy(moduleInfos.get(dep)))
+            {
+                continue;
+            }
             try
             {
                 enable(dep);
@@ -301,6 +634,355 @@ public class BasicModularity implements Modularity
         }
     }
 
+    @Override
+    public void setLazy(String module, boolean lazy)
+    {
+        if (lazy)
+        {
+            lazyModules.add(module);
+        }
+        else
+        {
+            lazyModules.remove(module);
+        }
+    }
+
+    /**
+     * Returns whether given information is a lazy module, either marked by its metadata or by {@link #setLazy}
+     *
+     * @param info the information
+     *
+     * @return true if lazy
+     */
+    boolean isLazy(DependencyInformation info)
+    {
+        return info instanceof ModuleMetadata
+            && (((ModuleMetadata)info).isLazy() || lazyModules.contains(info.getClassName())
+                || evicted.contains(info.getClassName()));
+    }
+
+    /**
+     * Enables the lazy modules loaded by the same ClassLoader as given information
+     *
+     * @param info the information
+     */
+    void activateModules(DependencyInformation info)
+    {
+        ClassLoader classLoader = info.getClassLoader();
+        if (classLoader == null)
+        {
+            return;
+        }
+        for (ModuleMetadata module : moduleInfos.values())
+        {
+            if (module.getClassLoader() == classLoader && isLazy(module)
+                && !getLifecycle(module.getIdentifier()).isIn(State.ENABLED))
+            {
+                this.log("Activate lazy module " + module.getName());
+                enable(module.getIdentifier());
+            }
+        }
+    }
+
+    @Override
+    public synchronized int evictIdleModules(long idleTime, TimeUnit unit)
+    {
+        long now = System.nanoTime();
+        Set<LifeCycle> accessed = new HashSet<LifeCycle>();
+        for (LifeCycle lifeCycle : lifeCycles.values())
+        {
+            lifeCycle.pollAccessed(accessed);
+        }
+        Set<ClassLoader> used = new HashSet<ClassLoader>();
+        for (LifeCycle lifeCycle : accessed)
+        {
+            DependencyInformation info = lifeCycle.getInformation();
+            if (info != null && info.getClassLoader() != null)
+            {
+                used.add(info.getClassLoader());
+            }
+        }
+
+        int count = 0;
+        for (ModuleMetadata module : moduleInfos.values())
+        {
+            Dependency dep = module.getIdentifier();
+            LifeCycle lifeCycle = lifeCycles.get(dep);
+            if (lifeCycle == null || !lifeCycle.isIn(State.ENABLED))
+            {
+                lastAccess.remove(dep);
+                continue;
+            }
+            Long last = lastAccess.get(dep);
+            if (last == null || accessed.contains(lifeCycle) || used.contains(module.getClassLoader()))
+            {
+                lastAccess.put(dep, now);
+            }
+            else if (now - last >= unit.toNanos(idleTime) && !hasEnabledDependents(dep))
+            {
+                evict(module, lifeCycle);
+                lastAccess.remove(dep);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private boolean hasEnabledDependents(Dependency dep)
+    {
+        Node node = graph.getNode(dep);
+        if (node != null)
+        {
+            for (Node dependent : graph.getDependents(node))
+            {
+                LifeCycle lifeCycle = lifeCycles.get(dependent.getInformation().getIdentifier());
+                if (lifeCycle != null && lifeCycle.isIn(State.ENABLED))
+                {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void evict(ModuleMetadata module, LifeCycle lifeCycle)
+    {
+        this.log("Evict idle module " + module.getName());
+        evicted.add(module.getClassName());
+        lifeCycle.disable();
+        ClassLoader classLoader = module.getClassLoader();
+        if (classLoader != null)
+        {
+            for (LifeCycle impl : lifeCycles.values())
+            {
+                DependencyInformation info = impl.getInformation();
+                if (info instanceof ServiceImplementationMetadata && info.getClassLoader() == classLoader)
+                {
+                    impl.disable();
+                    impl.release();
+                }
+            }
+        }
+        lifeCycle.release();
+    }
+
+    @Override
+    public void setShareLibraries(boolean share)
+    {
+        synchronized (loadLock)
+        {
+            if (!share)
+            {
+                libraries = null;
+            }
+            else if (libraries == null)
+            {
+                libraries = new SharedLibraries(this);
+            }
+        }
+    }
+
+    @Override
+    public void setPreloader(ClassPreloader preloader)
+    {
+        ClassPreloader previous;
+        synchronized (loadLock)
+        {
+            previous = this.preloader;
+            this.preloader = preloader;
+        }
+        if (previous != null && previous != preloader)
+        {
+            previous.shutdown(); // Its scheduled tasks would keep the jars reachable
+        }
+    }
+
+    @Override
+    public void unload(Dependency module)
+    {
+        synchronized (loadLock)
+        {
+            Node node = graph.getNode(module);
+            if (node == null || !(node.getInformation() instanceof ModuleMetadata))
+            {
+                throw new IllegalArgumentException("Not a loaded module: " + module.name());
+            }
+            ClassLoader classLoader = node.getInformation().getClassLoader();
+            if (!(classLoader instanceof ModularityClassLoader))
+            {
+                throw new IllegalStateException("Cannot unload modules loaded from the classpath: " + module.name());
+            }
+
+            List<Node> nodes = new ArrayList<Node>();
+            for (Node loaded : graph.getNodes())
+            {
+                if (loaded.getInformation().getClassLoader() == classLoader)
+                {
+                    nodes.add(loaded);
+                }
+            }
+            checkUnused(nodes, classLoader);
+
+            // Optional dependents get disabled along with the unloaded nodes and enabled again afterwards
+            Set<LifeCycle> dependents = new LinkedHashSet<LifeCycle>();
+            for (Node unloaded : nodes)
+            {
+                for (Node dependent : graph.getDependents(unloaded))
+                {
+                    LifeCycle lifeCycle = lifeCycles.get(dependent.getInformation().getIdentifier());
+                    if (!nodes.contains(dependent) && lifeCycle != null && lifeCycle.isIn(State.ENABLED))
+                    {
+                        dependents.add(lifeCycle);
+                    }
+                }
+            }
+            for (Node unloaded : nodes)
+            {
+                LifeCycle lifeCycle = lifeCycles.get(unloaded.getInformation().getIdentifier());
+                if (lifeCycle != null)
+                {
+                    lifeCycle.disable();
+                }
+            }
+            for (LifeCycle lifeCycle : lifeCycles.values())
+            {
+                lifeCycle.removeImpls(classLoader);
+            }
+            for (Iterator<LifeCycle> it = lifeCycles.values().iterator(); it.hasNext(); )
+            {
+                LifeCycle lifeCycle = it.next();
+                DependencyInformation info = lifeCycle.getInformation();
+                Object instance = lifeCycle.getInstance();
+                if (info != null && info.getClassLoader() == classLoader
+                    || instance != null && instance.getClass().getClassLoader() == classLoader)
+                {
+                    it.remove();
+                    lifeCycle.unload();
+                }
+            }
+            for (Iterator<ServiceImplementationMetadata> it = serviceImpls.values().iterator(); it.hasNext(); )
+            {
+                if (it.next().getClassLoader() == classLoader)
+                {
+                    it.remove();
+                }
+            }
+            for (Node unloaded : nodes)
+            {
+                Dependency identifier = unloaded.getInformation().getIdentifier();
+                moduleInfos.remove(identifier);
+                lastAccess.remove(identifier);
+                evicted.remove(unloaded.getInformation().getClassName());
+            }
+            loadedNodes.removeAll(nodes);
+            graph.removeAll(nodes);
+            unindex((ModularityClassLoader)classLoader);
+            if (((ModularityClassLoader)classLoader).getLibraries() != null)
+            {
+                ((ModularityClassLoader)classLoader).getLibraries().unregister((ModularityClassLoader)classLoader);
+            }
+            ClassPreloader preloader = this.preloader;
+            if (preloader != null)
+            {
+                preloader.detach((ModularityClassLoader)classLoader);
+            }
+            forgetHandlers(classLoader);
+            getLoader().unload(classLoader);
+
+            Set<ModularityClassLoader> remaining = new HashSet<ModularityClassLoader>();
+            for (Node loaded : graph.getNodes())
+            {
+                if (loaded.getInformation().getClassLoader() instanceof ModularityClassLoader)
+                {
+                    remaining.add((ModularityClassLoader)loaded.getInformation().getClassLoader());
+                }
+            }
+            for (ModularityClassLoader loader : remaining)
+            {
+                loader.forget(classLoader);
+            }
+            try
+            {
+                ((ModularityClassLoader)classLoader).close();
+            }
+            catch (IOException e)
+            {
+                this.logError("Could not close the ClassLoader of " + module.name(), e);
+            }
+            this.log("Unloaded " + nodes.size() + " nodes with " + module.name());
+
+            for (LifeCycle dependent : dependents)
+            {
+                try
+                {
+                    dependent.enable();
+                }
+                catch (IllegalStateException e)
+                {
+                    this.logError("Could not enable " + dependent.getInformation().getIdentifier().name()
+                                      + " again after unloading " + module.name(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Ensures no remaining node or service implementation requires the nodes to unload
+     */
+    private void checkUnused(List<Node> nodes, ClassLoader classLoader)
+    {
+        Set<String> services = new HashSet<String>();
+        for (Node node : nodes)
+        {
+            if (node.getInformation() instanceof ServiceDefinitionMetadata)
+            {
+                services.add(node.getInformation().getClassName());
+            }
+            for (Node dependent : node.getSuccessors())
+            {
+                if (nodes.contains(dependent))
+                {
+                    continue;
+                }
+                for (Dependency dep : dependent.getInformation().requiredDependencies())
+                {
+                    if (node.equals(graph.getNode(dep)))
+                    {
+                        throw new IllegalStateException(dependent.getInformation().getIdentifier().name()
+                                                            + " requires " + dep.name());
+                    }
+                }
+            }
+        }
+        for (ServiceImplementationMetadata impl : serviceImpls.values())
+        {
+            if (impl.getClassLoader() != classLoader && services.contains(impl.getActualClass()))
+            {
+                throw new IllegalStateException(impl.getIdentifier().name() + " implements " + impl.getActualClass());
+            }
+        }
+    }
+
+    private void forgetHandlers(ClassLoader classLoader)
+    {
+        for (ModularityHandler handler : modularityHandlers)
+        {
+            if (handler.getClass().getClassLoader() == classLoader)
+            {
+                modularityHandlers.remove(handler);
+            }
+        }
+        for (Iterator<Entry<Class<? extends Annotation>, PostInjectionHandler>> it = postInjectionHandlers.entrySet().iterator(); it.hasNext(); )
+        {
+            Entry<Class<? extends Annotation>, PostInjectionHandler> entry = it.next();
+            if (entry.getKey().getClassLoader() == classLoader
+                || entry.getValue().getClass().getClassLoader() == classLoader)
+            {
+                it.remove();
+            }
+        }
+    }
+
     @Override
     public void disableModules()
     {
@@ -361,7 +1043,12 @@ public class BasicModularity implements Modularity
         catch (MissingDependencyException ignored)
         {
             LifeCycle lifeCycle = new LifeCycle(this);
-            this.lifeCycles.put(dep, lifeCycle);
+            LifeCycle existing = this.lifeCycles.putIfAbsent(dep, lifeCycle);
+            if (existing != null)
+            {
+                return existing;
+            }
+            this.placeholders.put(dep, lifeCycle);
             return lifeCycle;
         }
     }
@@ -372,6 +1059,99 @@ public class BasicModularity implements Modularity
         return loader;
     }
 
+    @Override
+    public void setProxyFactory(ProxyFactory factory)
+    {
+        this.proxyFactory = factory;
+    }
+
+    @Override
+    public ProxyFactory getProxyFactory()
+    {
+        return proxyFactory;
+    }
+
+    @Override
+    public void setSelectionStrategy(Class<?> service, SelectionStrategy strategy)
+    {
+        if (strategy == null)
+        {
+            strategies.remove(service.getName());
+        }
+        else
+        {
+            strategies.put(service.getName(), strategy);
+        }
+        ServiceProvider provider = getServiceProvider(service);
+        if (provider != null)
+        {
+            provider.setStrategy(strategy);
+        }
+    }
+
+    /**
+     * Returns the strategy set for a service
+     *
+     * @param service the name of the service interface
+     *
+     * @return the strategy or null for the default
+     */
+    SelectionStrategy getSelectionStrategy(String service)
+    {
+        return strategies.get(service);
+    }
+
+    @Override
+    public void setMetricsEnabled(Class<?> service, boolean enabled)
+    {
+        if (enabled)
+        {
+            metered.add(service.getName());
+        }
+        else
+        {
+            metered.remove(service.getName());
+        }
+        ServiceProvider provider = getServiceProvider(service);
+        if (provider != null)
+        {
+            provider.setMetricsEnabled(enabled);
+        }
+    }
+
+    /**
+     * Returns whether metrics are recorded for a service
+     *
+     * @param service the name of the service interface
+     *
+     * @return true if recorded
+     */
+    boolean isMetricsEnabled(String service)
+    {
+        return metered.contains(service);
+    }
+
+    @Override
+    public InvocationMetrics getMetrics(Class<?> service)
+    {
+        ServiceProvider provider = getServiceProvider(service);
+        return provider == null ? null : provider.getMetrics();
+    }
+
+    /**
+     * Returns the ServiceProvider of an instantiated service
+     */
+    private ServiceProvider getServiceProvider(Class<?> service)
+    {
+        Node node = graph.getNode(new BasicDependency(service.getName(), null));
+        LifeCycle lifeCycle = node == null ? null : lifeCycles.get(node.getInformation().getIdentifier());
+        if (lifeCycle != null && lifeCycle.getInstance() instanceof ServiceProvider)
+        {
+            return (ServiceProvider)lifeCycle.getInstance();
+        }
+        return null;
+    }
+
     @Override
     public void registerHandler(ModularityHandler handler)
     {
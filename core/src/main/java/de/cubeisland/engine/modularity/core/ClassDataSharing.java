@@ -0,0 +1,274 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Computes the JVM arguments to dump and use a dynamic class data sharing archive (JDK 13+) for a set of module jars.
+ * <p>
+ * Each exact set of module jars has its own archive, identified by the digests of the classes in the jars.
+ * The first start with a new set of jars dumps the archive on exit, later starts map the archived classes instead of
+ * parsing and verifying them again. The JVM ignores archived classes whose bytes differ and falls back to loading
+ * classes normally if the archive cannot be mapped.
+ * <p>
+ * Classes of module jars are archived if they were linked and each class name is defined by a single ClassLoader.
+ * Identical packages should be shared using {@link Modularity#setShareLibraries(boolean)} and a {@link ClassPreloader}
+ * links classes that were only loaded before. Launch scripts may use
+ * {@link #main(String[])} to get the arguments before starting the JVM. As that JVM may be another one than the
+ * JVM computing the arguments, the version or installation of the target JVM can be given.
+ */
+public final class ClassDataSharing
+{
+    private static final String PREFIX = "modules-";
+    private static final String EXTENSION = ".jsa";
+
+    private ClassDataSharing()
+    {
+    }
+
+    /**
+     * Returns the archive file for given module jars
+     *
+     * @param directory the directory containing the archives
+     * @param jars      the module jars
+     *
+     * @return the archive file
+     */
+    public static File getArchive(File directory, Collection<File> jars)
+    {
+        long digest = 0;
+        for (File jar : jars)
+        {
+            JarSource source = open(jar);
+            if (source != null)
+            {
+                // Summed up so the order of the jars does not matter
+                digest += source.getDigest() * 31 + jar.getName().hashCode();
+                source.close();
+            }
+        }
+        return new File(directory, PREFIX + Long.toHexString(digest) + EXTENSION);
+    }
+
+    /**
+     * Returns the JVM arguments for a JVM of the same version as the running one
+     *
+     * @param directory the directory containing the archives
+     * @param jars      the module jars
+     *
+     * @return the JVM arguments or an empty list if the running JVM does not support dynamic archives
+     *
+     * @see #getArguments(File, Collection, int)
+     */
+    public static List<String> getArguments(File directory, Collection<File> jars)
+    {
+        return getArguments(directory, jars, parseVersion(System.getProperty("java.specification.version", "0")));
+    }
+
+    /**
+     * Returns the JVM arguments for the JVM installed in given directory
+     *
+     * @param directory the directory containing the archives
+     * @param jars      the module jars
+     * @param javaHome  the installation directory of the target JVM
+     *
+     * @return the JVM arguments or an empty list if the target JVM does not support dynamic archives
+     *
+     * @see #getArguments(File, Collection, int)
+     */
+    public static List<String> getArguments(File directory, Collection<File> jars, File javaHome)
+    {
+        return getArguments(directory, jars, getJavaVersion(javaHome));
+    }
+
+    /**
+     * Returns the JVM arguments to use the archive for given module jars if it exists or to dump it otherwise.
+     * Archives of other sets of jars are deleted when a new archive is dumped.
+     *
+     * @param directory   the directory containing the archives
+     * @param jars        the module jars
+     * @param javaVersion the major version of the target JVM
+     *
+     * @return the JVM arguments or an empty list if the target JVM does not support dynamic archives
+     */
+    public static List<String> getArguments(File directory, Collection<File> jars, int javaVersion)
+    {
+        List<String> arguments = new ArrayList<String>();
+        if (javaVersion < 13)
+        {
+            return arguments;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        }
+        File archive = getArchive(directory, jars);
+        arguments.add("-Xshare:auto");
+        if (archive.isFile())
+        {
+            arguments.add("-XX:SharedArchiveFile=" + archive.getAbsolutePath());
+            return arguments;
+        }
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File file : files)
+            {
+                if (file.getName().startsWith(PREFIX) && file.getName().endsWith(EXTENSION))
+                {
+                    file.delete();
+                }
+            }
+        }
+        arguments.add("-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath());
+        return arguments;
+    }
+
+    /**
+     * Prints the JVM arguments for the module jars in a directory
+     *
+     * @param args the directory for the archives, the directory containing the module jars and optionally the
+     *             installation directory of the target JVM
+     */
+    public static void main(String[] args)
+    {
+        if (args.length != 2 && args.length != 3)
+        {
+            System.err.println("Usage: ClassDataSharing <archive directory> <module directory> [java home]");
+            System.exit(1);
+        }
+        List<File> jars = new ArrayList<File>();
+        File[] files = new File(args[1]).listFiles();
+        if (files != null)
+        {
+            Arrays.sort(files);
+            for (File file : files)
+            {
+                if (file.isFile() && file.getName().endsWith(".jar"))
+                {
+                    jars.add(file);
+                }
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        File directory = new File(args[0]);
+        List<String> arguments = args.length == 3 ? getArguments(directory, jars, new File(args[2]))
+                                                  : getArguments(directory, jars);
+        for (String argument : arguments)
+        {
+            if (sb.length() != 0)
+            {
+                sb.append(' ');
+            }
+            sb.append(argument);
+        }
+        System.out.println(sb);
+    }
+
+    private static JarSource open(File jar)
+    {
+        try
+        {
+            return JarSource.open(jar.toURI().toURL());
+        }
+        catch (MalformedURLException e)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the major version of the JVM installed in given directory as declared in its release file
+     *
+     * @param javaHome the installation directory
+     *
+     * @return the major version or 0 if unknown
+     */
+    public static int getJavaVersion(File javaHome)
+    {
+        Properties release = new Properties();
+        InputStream in = null;
+        try
+        {
+            in = new FileInputStream(new File(javaHome, "release"));
+            release.load(in);
+        }
+        catch (IOException e)
+        {
+            return 0;
+        }
+        finally
+        {
+            if (in != null)
+            {
+                try
+                {
+                    in.close();
+                }
+                catch (IOException ignored)
+                {
+                }
+            }
+        }
+        String version = release.getProperty("JAVA_VERSION", "0");
+        if (version.length() > 1 && version.startsWith("\"") && version.endsWith("\""))
+        {
+            version = version.substring(1, version.length() - 1);
+        }
+        return parseVersion(version);
+    }
+
+    /**
+     * Parses the major version of e.g. 1.8.0_292, 13 or 17.0.9
+     */
+    static int parseVersion(String version)
+    {
+        if (version.startsWith("1."))
+        {
+            version = version.substring(2);
+        }
+        int end = 0;
+        while (end < version.length() && Character.isDigit(version.charAt(end)))
+        {
+            end++;
+        }
+        try
+        {
+            return Integer.parseInt(version.substring(0, end));
+        }
+        catch (NumberFormatException e)
+        {
+            return 0;
+        }
+    }
+}
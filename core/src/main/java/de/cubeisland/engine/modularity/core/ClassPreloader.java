@@ -0,0 +1,318 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Records the classes each module jar defines during the first minutes after it was loaded and preloads them in the
+ * same order in the background the next time the same version of the jar is loaded.
+ * <p>
+ * The lists are stored per jar and digest of its classes, so changed jars start recording anew.
+ * Classes are loaded and linked but never initialized by the preloader.
+ * The list of a jar is saved early when its module is unloaded.
+ */
+public class ClassPreloader
+{
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final String EXTENSION = ".classes";
+
+    private final File directory;
+    private final long recordTime;
+    private final ScheduledExecutorService executor;
+    private final Set<JarSource> attached = Collections.newSetFromMap(new WeakHashMap<JarSource, Boolean>()); // guarded by this
+    private final Map<JarSource, List<String>> recording = new HashMap<JarSource, List<String>>(); // guarded by this
+    private final Map<JarSource, List<Future<?>>> tasks = new HashMap<JarSource, List<Future<?>>>(); // guarded by this
+    private final AtomicInteger preloaded = new AtomicInteger();
+
+    /**
+     * Creates a ClassPreloader using half of the available processors
+     *
+     * @param directory  the directory to store the lists of classes in
+     * @param recordTime the time to record classes for after a jar was loaded
+     * @param unit       the unit of recordTime
+     */
+    public ClassPreloader(File directory, long recordTime, TimeUnit unit)
+    {
+        this(directory, recordTime, unit, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    public ClassPreloader(File directory, long recordTime, TimeUnit unit, int threads)
+    {
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IllegalArgumentException("Cannot create directory " + directory);
+        }
+        this.directory = directory;
+        this.recordTime = unit.toNanos(recordTime);
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(threads, new PreloadThreadFactory());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        executor.setRemoveOnCancelPolicy(true); // Cancelled tasks would keep unloaded jars reachable until they are due
+        this.executor = executor;
+    }
+
+    /**
+     * Starts preloading and recording the jars of given ClassLoader not seen before
+     *
+     * @param loader the ClassLoader
+     */
+    void attach(final ModularityClassLoader loader)
+    {
+        for (final JarSource source : loader.getSources())
+        {
+            synchronized (this)
+            {
+                if (executor.isShutdown() || !attached.add(source))
+                {
+                    continue;
+                }
+                final List<String> preload = read(source);
+                recording.put(source, preload);
+                source.startRecording();
+                List<Future<?>> futures = new ArrayList<Future<?>>(2);
+                if (!preload.isEmpty())
+                {
+                    futures.add(executor.submit(new Runnable()
+                    {
+                        @Override
+                        public void run()
+                        {
+                            preloaded.addAndGet(loader.preload(preload));
+                        }
+                    }));
+                }
+                futures.add(executor.schedule(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        save(source);
+                    }
+                }, recordTime, TimeUnit.NANOSECONDS));
+                tasks.put(source, futures);
+            }
+        }
+    }
+
+    /**
+     * Cancels preloading the jars of an unloaded ClassLoader and saves what was recorded for them so far
+     *
+     * @param loader the unloaded ClassLoader
+     */
+    void detach(ModularityClassLoader loader)
+    {
+        for (JarSource source : loader.getSources())
+        {
+            synchronized (this)
+            {
+                attached.remove(source);
+                List<Future<?>> futures = tasks.remove(source);
+                if (futures != null)
+                {
+                    for (Future<?> future : futures)
+                    {
+                        future.cancel(false);
+                    }
+                }
+            }
+            save(source);
+        }
+    }
+
+    /**
+     * Returns the amount of classes preloaded so far
+     *
+     * @return the amount of classes
+     */
+    public int getPreloadedCount()
+    {
+        return preloaded.get();
+    }
+
+    /**
+     * Stops preloading and saves all lists still recording
+     */
+    public void shutdown()
+    {
+        List<JarSource> sources;
+        synchronized (this)
+        {
+            executor.shutdownNow();
+            tasks.clear();
+            sources = new ArrayList<JarSource>(recording.keySet());
+        }
+        for (JarSource source : sources)
+        {
+            save(source);
+        }
+    }
+
+    private void save(JarSource source)
+    {
+        List<String> preloaded;
+        List<String> used;
+        synchronized (this)
+        {
+            preloaded = recording.remove(source);
+            if (preloaded == null)
+            {
+                return;
+            }
+            tasks.remove(source);
+            used = source.stopRecording();
+        }
+        // Classes preloaded before their first use are not recorded again and keep their place at the end
+        Set<String> names = new LinkedHashSet<String>(used);
+        names.addAll(preloaded);
+        write(source, names);
+    }
+
+    private List<String> read(JarSource source)
+    {
+        File file = getFile(source);
+        List<String> names = new ArrayList<String>();
+        if (!file.isFile())
+        {
+            return names;
+        }
+        BufferedReader reader = null;
+        try
+        {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                if (!line.isEmpty())
+                {
+                    names.add(line);
+                }
+            }
+        }
+        catch (IOException ignored)
+        {
+        }
+        finally
+        {
+            close(reader);
+        }
+        return names;
+    }
+
+    private void write(JarSource source, Set<String> names)
+    {
+        File file = getFile(source);
+        String prefix = file.getName().substring(0, file.getName().lastIndexOf('-') + 1);
+        File[] files = directory.listFiles();
+        if (files != null)
+        {
+            for (File old : files) // Lists of other versions of the jar
+            {
+                if (!old.equals(file) && old.getName().startsWith(prefix) && old.getName().endsWith(EXTENSION)
+                    && old.getName().indexOf('-', prefix.length()) == -1)
+                {
+                    old.delete();
+                }
+            }
+        }
+        BufferedWriter writer = null;
+        try
+        {
+            writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), UTF8));
+            for (String name : names)
+            {
+                writer.write(name);
+                writer.newLine();
+            }
+        }
+        catch (IOException e)
+        {
+            file.delete();
+        }
+        finally
+        {
+            close(writer);
+        }
+    }
+
+    private File getFile(JarSource source)
+    {
+        String path = source.getURL().getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        if (name.endsWith(".jar"))
+        {
+            name = name.substring(0, name.length() - 4);
+        }
+        return new File(directory, name + "-" + Long.toHexString(source.getDigest()) + EXTENSION);
+    }
+
+    private static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    private static class PreloadThreadFactory implements ThreadFactory
+    {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r)
+        {
+            Thread thread = new Thread(r, "Modularity Preloader " + count.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
@@ -22,42 +22,47 @@
  */
 package de.cubeisland.engine.modularity.core;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.util.List;
 
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 
 public class ConstructorInjection extends InjectionPoint
 {
+    private static final MethodType TYPE = MethodType.methodType(Object.class, Object[].class);
+
     public ConstructorInjection(Dependency self, List<Dependency> dependencies)
     {
         super(self, dependencies);
     }
 
+    @Override
+    protected Object resolve(Class<?> clazz, Modularity modularity) throws ReflectiveOperationException
+    {
+        Constructor<?> constructor = clazz.getConstructor(getDependencies(modularity));
+        MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor);
+        return handle.asSpreader(Object[].class, getDependencies().size()).asType(TYPE);
+    }
+
     @Override
     public Object inject(Modularity modularity, LifeCycle lifeCycle)
     {
-        try
+        if (hasInjector())
         {
-            Constructor constructor = getClazz(getSelf(), lifeCycle).getConstructor(getDependencies(modularity));
-            return constructor.newInstance(collectDependencies(modularity, lifeCycle));
+            return injectDirect(null, collectDependencies(modularity, lifeCycle));
         }
-        catch (InstantiationException e)
-        {
-            throw new IllegalStateException(e);
-        }
-        catch (IllegalAccessException e)
-        {
-            throw new IllegalStateException(e);
-        }
-        catch (InvocationTargetException e)
+        MethodHandle constructor = (MethodHandle)getTarget(modularity, lifeCycle);
+        Object[] deps = collectDependencies(modularity, lifeCycle);
+        try
         {
-            throw new IllegalStateException(e);
+            return (Object)constructor.invokeExact(deps);
         }
-        catch (NoSuchMethodException e)
+        catch (Throwable t)
         {
-            throw new IllegalStateException(e);
+            throw rethrow(t);
         }
     }
 }
@@ -22,12 +22,17 @@
  */
 package de.cubeisland.engine.modularity.core;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodHandles.Lookup;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
 import java.util.List;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 
 public class FieldsInjection extends InjectionPoint
 {
+    private static final MethodType TYPE = MethodType.methodType(void.class, Object.class, Object.class);
     private List<String> fieldNames;
 
     public FieldsInjection(Dependency self, List<Dependency> dependencies, List<String> fieldNames)
@@ -37,33 +42,63 @@ public class FieldsInjection extends InjectionPoint
     }
 
     @Override
-    public Object inject(Modularity modularity, LifeCycle lifeCycle)
+    protected Object resolve(Class<?> clazz, Modularity modularity) throws ReflectiveOperationException
     {
-        try
+        Lookup lookup = MethodHandles.lookup();
+        Field[] fields = new Field[fieldNames.size()];
+        MethodHandle[] setters = new MethodHandle[fields.length];
+        for (int i = 0; i < fields.length; i++)
         {
-            Class<?> clazz = getClazz(getSelf(), lifeCycle);
-            Object[] deps = collectDependencies(modularity, lifeCycle);
-            for (int i = 0; i < fieldNames.size(); i++)
-            {
-                Field field = clazz.getDeclaredField(fieldNames.get(i));
-                field.setAccessible(true);
-                field.set(lifeCycle.getInstance(), deps[i]);
-                modularity.runPostInjectHandler(field, deps[i], lifeCycle.getInstance());
-            }
-            return lifeCycle.getInstance();
+            fields[i] = clazz.getDeclaredField(fieldNames.get(i));
+            fields[i].setAccessible(true);
+            setters[i] = lookup.unreflectSetter(fields[i]).asType(TYPE);
         }
-        catch (NoSuchFieldException e)
+        return new Setters(fields, setters);
+    }
+
+    @Override
+    public Object inject(Modularity modularity, LifeCycle lifeCycle)
+    {
+        Setters setters = (Setters)getTarget(modularity, lifeCycle);
+        Object instance = lifeCycle.getInstance();
+        Object[] deps = collectDependencies(modularity, lifeCycle);
+        boolean direct = hasInjector();
+        if (direct)
         {
-            throw new IllegalStateException(getSelf().name(), e);
+            injectDirect(instance, deps);
         }
-        catch (IllegalAccessException e)
+        for (int i = 0; i < deps.length; i++)
         {
-            throw new IllegalStateException(getSelf().name(), e);
+            if (!direct)
+            {
+                try
+                {
+                    setters.setters[i].invokeExact(instance, deps[i]);
+                }
+                catch (Throwable t)
+                {
+                    throw rethrow(t);
+                }
+            }
+            modularity.runPostInjectHandler(setters.fields[i], deps[i], instance);
         }
+        return instance;
     }
 
     public List<String> getFieldNames()
     {
         return fieldNames;
     }
+
+    private static final class Setters
+    {
+        private final Field[] fields;
+        private final MethodHandle[] setters;
+
+        private Setters(Field[] fields, MethodHandle[] setters)
+        {
+            this.fields = fields;
+            this.setters = setters;
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+/**
+ * A reusable handle to the object provided for a type.
+ * <p>
+ * Once the LifeCycle behind the handle is enabled, getting the provided object does not allocate, lock or look up
+ * anything. The handle falls back to a full lookup whenever the state of the LifeCycle changes.
+ *
+ * @param <T> the provided type
+ */
+public final class Handle<T>
+{
+    private final Class<T> type;
+    private final Modularity modularity;
+    private volatile LifeCycle lifeCycle;
+
+    Handle(Class<T> type, Modularity modularity)
+    {
+        this.type = type;
+        this.modularity = modularity;
+    }
+
+    /**
+     * Returns the provided object. Enables the dependency if it was not instantiated yet.
+     *
+     * @return the provided object
+     *
+     * @throws MissingDependencyException if the type cannot be provided
+     */
+    @SuppressWarnings("unchecked")
+    public T get()
+    {
+        LifeCycle current = lifeCycle;
+        if (current != null)
+        {
+            Object provided = current.getCachedProvided();
+            if (provided != null)
+            {
+                return (T)provided;
+            }
+        }
+        current = lookup();
+        if (!current.isInstantiated())
+        {
+            current.enable(false);
+        }
+        return (T)current.getProvided(null);
+    }
+
+    /**
+     * Returns the provided object for given requester
+     *
+     * @param requester the LifeCycle requesting the object
+     *
+     * @return the provided object
+     *
+     * @throws MissingDependencyException if the type cannot be provided
+     */
+    @SuppressWarnings("unchecked")
+    public T get(LifeCycle requester)
+    {
+        LifeCycle current = lifeCycle;
+        if (current != null)
+        {
+            Object provided = current.getCachedProvided();
+            if (provided != null)
+            {
+                return (T)provided;
+            }
+        }
+        return (T)lookup().getProvided(requester);
+    }
+
+    private LifeCycle lookup()
+    {
+        LifeCycle current = modularity.getLifecycle(type);
+        this.lifeCycle = current;
+        return current;
+    }
+
+    /**
+     * Returns the provided type
+     *
+     * @return the type
+     */
+    public Class<T> getType()
+    {
+        return type;
+    }
+}
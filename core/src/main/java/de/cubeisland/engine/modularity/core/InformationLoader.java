@@ -37,4 +37,11 @@ public interface InformationLoader
      */
     Set<DependencyInformation> loadInformation(File file, String... filters);
     Set<DependencyInformation> loadInformationFromClasspath(String... filters);
+
+    /**
+     * Forgets everything loaded with given ClassLoader
+     *
+     * @param classLoader the ClassLoader
+     */
+    void unload(ClassLoader classLoader);
 }
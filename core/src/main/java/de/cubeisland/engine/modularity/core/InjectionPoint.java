@@ -24,11 +24,15 @@ package de.cubeisland.engine.modularity.core;
 
 import java.util.List;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
+import de.cubeisland.engine.modularity.core.graph.DependencyInformation;
 
 public abstract class InjectionPoint
 {
     private Dependency self;
     private List<Dependency> dependencies;
+    private volatile Resolved resolved;
+    private Injector injector;
+    private int injectorPoint;
 
     public InjectionPoint(Dependency self, List<Dependency> dependencies)
     {
@@ -48,6 +52,78 @@ public abstract class InjectionPoint
 
     public abstract Object inject(Modularity modularity, LifeCycle lifeCycle);
 
+    /**
+     * Sets an Injector to use instead of invoking the resolved members
+     *
+     * @param injector the injector
+     * @param point    the index of this InjectionPoint within the injector
+     */
+    public void setInjector(Injector injector, int point)
+    {
+        this.injector = injector;
+        this.injectorPoint = point;
+    }
+
+    public boolean hasInjector()
+    {
+        return injector != null;
+    }
+
+    protected Object injectDirect(Object instance, Object[] dependencies)
+    {
+        try
+        {
+            return injector.inject(injectorPoint, instance, dependencies);
+        }
+        catch (Exception e)
+        {
+            throw new IllegalStateException(getSelf().name(), e);
+        }
+    }
+
+    /**
+     * Resolves the members to inject into once for the ClassLoader of the LifeCycle
+     *
+     * @param clazz      the class to inject into
+     * @param modularity the Modularity
+     *
+     * @return the resolved target passed to subsequent injections
+     */
+    protected abstract Object resolve(Class<?> clazz, Modularity modularity) throws ReflectiveOperationException;
+
+    /**
+     * Returns the target resolved by {@link #resolve(Class, Modularity)}.
+     * The target is resolved again when the LifeCycle was reloaded with another ClassLoader.
+     */
+    protected Object getTarget(Modularity modularity, LifeCycle lifeCycle)
+    {
+        DependencyInformation info = lifeCycle.getInformation();
+        ClassLoader loader = info == null ? null : info.getClassLoader();
+        Resolved current = resolved;
+        if (current == null || current.loader != loader)
+        {
+            try
+            {
+                current = new Resolved(loader, resolve(getClazz(getSelf(), lifeCycle), modularity));
+            }
+            catch (ReflectiveOperationException e)
+            {
+                throw new IllegalStateException(getSelf().name(), e);
+            }
+            resolved = current;
+        }
+        return current.target;
+    }
+
+    protected static IllegalStateException rethrow(Throwable t)
+    {
+        if (t instanceof Error)
+        {
+            throw (Error)t;
+        }
+        return new IllegalStateException(t);
+    }
+
     protected Object[] collectDependencies(Modularity modularity, LifeCycle lifeCycle)
     {
         Object[] result = new Object[dependencies.size()];
@@ -104,4 +180,16 @@ public abstract class InjectionPoint
             throw new IllegalStateException(e);
         }
     }
+
+    private static final class Resolved
+    {
+        private final ClassLoader loader;
+        private final Object target;
+
+        private Resolved(ClassLoader loader, Object target)
+        {
+            this.loader = loader;
+            this.target = target;
+        }
+    }
 }
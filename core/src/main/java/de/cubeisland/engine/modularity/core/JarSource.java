@@ -0,0 +1,329 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSigner;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+/**
+ * The entries of a jar indexed once from its central directory.
+ * <p>
+ * Entries are kept in an open addressing table and read through a single JarFile kept open until closed,
+ * so looking up classes and resources neither scans the jar nor opens URL connections.
+ * <p>
+ * Each package gets a digest of the names, CRC32 checksums and sizes of its classes as recorded in the central
+ * directory. Packages with equal digests in different jars contain the same classes.
+ */
+final class JarSource
+{
+    private final JarFile jar;
+    private final URL url;
+    private final CodeSource codeSource;
+    private final String base;
+    private final String[] names;
+    private final JarEntry[] entries;
+    private final int mask;
+    private final Map<String, Long> packages;
+    private final Manifest manifest;
+    private final long digest;
+    private volatile Queue<String> recorded; // the classes defined while recording
+
+    private JarSource(JarFile jar, URL source) throws IOException
+    {
+        this.jar = jar;
+        this.url = source;
+        this.codeSource = new CodeSource(source, (CodeSigner[])null);
+        this.base = "jar:" + source + "!/";
+        this.manifest = jar.getManifest();
+        int capacity = Integer.highestOneBit(Math.max(16, jar.size() * 2 - 1)) << 1;
+        this.names = new String[capacity];
+        this.entries = new JarEntry[capacity];
+        this.mask = capacity - 1;
+        Map<String, Long> packages = new HashMap<String, Long>();
+        for (Enumeration<JarEntry> it = jar.entries(); it.hasMoreElements(); )
+        {
+            JarEntry entry = it.nextElement();
+            if (entry.isDirectory())
+            {
+                continue;
+            }
+            String name = entry.getName();
+            int slot = slot(name);
+            while (names[slot] != null)
+            {
+                slot = (slot + 1) & mask;
+            }
+            names[slot] = name;
+            entries[slot] = entry;
+            if (name.endsWith(".class"))
+            {
+                String pack = packageOf(name.substring(0, name.length() - 6).replace('/', '.'));
+                Long digest = packages.get(pack);
+                // Summed up so the digest does not depend on the order of the entries
+                packages.put(pack, (digest == null ? 0 : digest) + mix(name.hashCode(), entry.getCrc(), entry.getSize()));
+            }
+        }
+        this.packages = Collections.unmodifiableMap(packages);
+        long digest = 0;
+        for (Long pack : packages.values())
+        {
+            digest += pack;
+        }
+        this.digest = digest;
+    }
+
+    /**
+     * Opens and indexes a jar
+     *
+     * @param source the URL of the jar
+     *
+     * @return the source or null if the URL is not a readable jar
+     */
+    static JarSource open(URL source)
+    {
+        if (!"file".equals(source.getProtocol()) || !source.getPath().endsWith(".jar"))
+        {
+            return null;
+        }
+        JarFile jar = null;
+        try
+        {
+            jar = new JarFile(new File(source.toURI()));
+            return new JarSource(jar, source);
+        }
+        catch (IOException e)
+        {
+            close(jar);
+            return null;
+        }
+        catch (URISyntaxException e)
+        {
+            return null;
+        }
+    }
+
+    private int slot(String name)
+    {
+        int hash = name.hashCode();
+        return (hash ^ hash >>> 16) & mask;
+    }
+
+    /**
+     * Returns the entry with given path
+     *
+     * @param name the path within the jar
+     *
+     * @return the entry or null
+     */
+    JarEntry getEntry(String name)
+    {
+        for (int slot = slot(name); names[slot] != null; slot = (slot + 1) & mask)
+        {
+            if (names[slot].equals(name))
+            {
+                return entries[slot];
+            }
+        }
+        return null;
+    }
+
+    byte[] read(JarEntry entry) throws IOException
+    {
+        InputStream in = jar.getInputStream(entry);
+        try
+        {
+            long size = entry.getSize();
+            if (size >= 0)
+            {
+                byte[] bytes = new byte[(int)size];
+                int read = 0;
+                while (read < bytes.length)
+                {
+                    int count = in.read(bytes, read, bytes.length - read);
+                    if (count < 0)
+                    {
+                        throw new IOException("Unexpected end of " + entry.getName());
+                    }
+                    read += count;
+                }
+                return bytes;
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int count = in.read(buffer); count >= 0; count = in.read(buffer))
+            {
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    InputStream open(JarEntry entry) throws IOException
+    {
+        return jar.getInputStream(entry);
+    }
+
+    /**
+     * Returns the URL of an entry. Only opening the URL connects to the jar.
+     */
+    URL getURL(JarEntry entry)
+    {
+        try
+        {
+            return new URL(base + entry.getName());
+        }
+        catch (MalformedURLException e)
+        {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Set<String> getPackages()
+    {
+        return packages.keySet();
+    }
+
+    /**
+     * Returns the digest of the classes in a package
+     *
+     * @param name the name of the package
+     *
+     * @return the digest or null if the jar does not contain the package
+     */
+    Long getDigest(String name)
+    {
+        return packages.get(name);
+    }
+
+    /**
+     * Returns the digest of all classes in the jar identifying its version
+     *
+     * @return the digest
+     */
+    long getDigest()
+    {
+        return digest;
+    }
+
+    void startRecording()
+    {
+        recorded = new ConcurrentLinkedQueue<String>();
+    }
+
+    /**
+     * Stops recording
+     *
+     * @return the classes defined in order or null if not recording
+     */
+    List<String> stopRecording()
+    {
+        Queue<String> recorded = this.recorded;
+        this.recorded = null;
+        return recorded == null ? null : new ArrayList<String>(recorded);
+    }
+
+    /**
+     * Called when a class of this jar was defined
+     *
+     * @param name the name of the class
+     */
+    void defined(String name)
+    {
+        Queue<String> recorded = this.recorded;
+        if (recorded != null)
+        {
+            recorded.add(name);
+        }
+    }
+
+    private static long mix(int name, long crc, long size)
+    {
+        long hash = (long)name << 32 ^ crc ^ size * 0x9E3779B97F4A7C15L;
+        hash = (hash ^ hash >>> 33) * 0xff51afd7ed558ccdL;
+        hash = (hash ^ hash >>> 33) * 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+
+    Manifest getManifest()
+    {
+        return manifest;
+    }
+
+    URL getURL()
+    {
+        return url;
+    }
+
+    CodeSource getCodeSource()
+    {
+        return codeSource;
+    }
+
+    void close()
+    {
+        close(jar);
+    }
+
+    private static void close(JarFile jar)
+    {
+        if (jar != null)
+        {
+            try
+            {
+                jar.close();
+            }
+            catch (IOException ignored)
+            {
+            }
+        }
+    }
+
+    static String packageOf(String name)
+    {
+        int index = name.lastIndexOf('.');
+        return index == -1 ? "" : name.substring(0, index);
+    }
+}
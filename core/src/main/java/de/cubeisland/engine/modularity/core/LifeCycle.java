@@ -26,16 +26,24 @@ import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
 import java.util.PriorityQueue;
 import java.util.Queue;
+import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.inject.Provider;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 import de.cubeisland.engine.modularity.core.graph.DependencyInformation;
+import de.cubeisland.engine.modularity.core.graph.Node;
 import de.cubeisland.engine.modularity.core.graph.meta.ModuleMetadata;
 import de.cubeisland.engine.modularity.core.graph.meta.ServiceDefinitionMetadata;
 import de.cubeisland.engine.modularity.core.graph.meta.ServiceImplementationMetadata;
@@ -47,11 +55,25 @@ import de.cubeisland.engine.modularity.core.service.ServiceProvider;
 
 import static de.cubeisland.engine.modularity.core.LifeCycle.State.*;
 
+/**
+ * The LifeCycle of a single dependency.
+ * <p>
+ * State transitions are guarded by the monitor of the LifeCycle so exactly one thread runs them while others wait for
+ * the result. Reading the provided instance of an enabled LifeCycle does not lock.
+ */
 public class LifeCycle
 {
     private static final Field MODULE_META_FIELD;
     private static final Field MODULE_MODULARITY_FIELD;
     private static final Field MODULE_LIFECYCLE;
+    private static final ThreadLocal<long[]> NESTED_TIME = new ThreadLocal<long[]>()
+    {
+        @Override
+        protected long[] initialValue()
+        {
+            return new long[1];
+        }
+    };
 
     static
     {
@@ -72,24 +94,32 @@ public class LifeCycle
 
     private Modularity modularity;
     private DependencyInformation info;
-    private State current = NONE;
-    private Object instance;
+    private volatile State current = NONE;
+    private volatile Object instance;
+    private volatile Object provided; // the provided object while it does not depend on the requester
+    private final AtomicBoolean accessed = new AtomicBoolean();
 
     private Method enable;
     private Method disable;
     private Map<Integer, Method> setup = new TreeMap<Integer, Method>();
+    private final Map<State, Long> durations = new EnumMap<State, Long>(State.class);
 
     private Map<Dependency, SettableMaybe> maybes = new HashMap<Dependency, SettableMaybe>();
-    private Queue<LifeCycle> impls = new LinkedList<LifeCycle>();
+    // the Maybes handed to this as a dependent
+    private final Set<SettableMaybe> held = Collections.newSetFromMap(new ConcurrentHashMap<SettableMaybe, Boolean>());
+    private Queue<LifeCycle> impls = new ConcurrentLinkedQueue<LifeCycle>();
+    private List<LifeCycle> cascaded;
+    private LifeCycle service; // the service LifeCycle of an implementation
 
     public LifeCycle(Modularity modularity)
     {
         this.modularity = modularity;
     }
 
-    public LifeCycle load(DependencyInformation info)
+    public synchronized LifeCycle load(DependencyInformation info)
     {
         this.info = info;
+        this.provided = null;
         this.current = LOADED;
         return this;
     }
@@ -97,24 +127,67 @@ public class LifeCycle
 
     public LifeCycle provide(ValueProvider provider)
     {
-        this.instance = provider;
-        this.current = PROVIDED;
-        return this;
+        return initProvided(provider);
     }
 
-    public LifeCycle initProvided(Object object)
+    public synchronized LifeCycle initProvided(Object object)
     {
         this.instance = object;
         this.current = PROVIDED;
+        this.provided = stableProvided();
+        provideMaybes();
         return this;
     }
 
+    private void provideMaybes()
+    {
+        for (SettableMaybe maybe : maybes.values())
+        {
+            maybe.provide(getProvided(this));
+        }
+    }
+
+    /**
+     * Hands the Maybes waiting on this placeholder over to the LifeCycle that can actually provide them
+     *
+     * @param lifeCycle the LifeCycle to take over the Maybes
+     */
+    void transferMaybes(LifeCycle lifeCycle)
+    {
+        Map<Dependency, SettableMaybe> transferred;
+        synchronized (this)
+        {
+            transferred = new HashMap<Dependency, SettableMaybe>(maybes);
+            maybes.clear();
+        }
+        lifeCycle.addMaybes(transferred);
+    }
+
+    private synchronized void addMaybes(Map<Dependency, SettableMaybe> maybes)
+    {
+        this.maybes.putAll(maybes);
+        if (isIn(ENABLED) || isIn(PROVIDED))
+        {
+            provideMaybes();
+        }
+    }
+
+    /**
+     * Returns whether there are optional dependents waiting on this LifeCycle
+     *
+     * @return true if a Maybe was handed out for this LifeCycle
+     */
+    public synchronized boolean hasMaybes()
+    {
+        return !maybes.isEmpty();
+    }
+
     public boolean isIn(State state)
     {
         return current == state;
     }
 
-    public LifeCycle instantiate()
+    public synchronized LifeCycle instantiate()
     {
         if (isIn(NONE))
         {
@@ -123,6 +196,7 @@ public class LifeCycle
 
         if (isIn(LOADED))
         {
+            long[] timing = startTiming();
             try
             {
                 if (info instanceof ServiceDefinitionMetadata)
@@ -133,7 +207,13 @@ public class LifeCycle
                         classLoader = modularity.getClass().getClassLoader(); // get parent classloader then
                     }
                     Class<?> instanceClass = Class.forName(info.getClassName(), true, classLoader);
-                    instance = new ServiceProvider(instanceClass, impls);
+                    ServiceProvider provider = new ServiceProvider(instanceClass, impls, modularity.getProxyFactory());
+                    if (modularity instanceof BasicModularity)
+                    {
+                        provider.setStrategy(((BasicModularity)modularity).getSelectionStrategy(info.getClassName()));
+                        provider.setMetricsEnabled(((BasicModularity)modularity).isMetricsEnabled(info.getClassName()));
+                    }
+                    instance = provider;
                     // TODO find impls in modularity and link them to this
 
                     // TODO transition all impls to INSTANTIATED?
@@ -159,6 +239,10 @@ public class LifeCycle
             {
                 throw new IllegalStateException(e);
             }
+            finally
+            {
+                stopTiming(INSTANTIATED, timing);
+            }
             current = INSTANTIATED;
         }
 
@@ -166,7 +250,7 @@ public class LifeCycle
         return this;
     }
 
-    public LifeCycle setup()
+    public synchronized LifeCycle setup()
     {
         if (isIn(NONE))
         {
@@ -180,15 +264,23 @@ public class LifeCycle
 
         if (isIn(INSTANTIATED))
         {
-            // TODO abstract those methods away
-            for (Method method : setup.values())
+            long[] timing = startTiming();
+            try
             {
-                invoke(method);
-            }
+                // TODO abstract those methods away
+                for (Method method : setup.values())
+                {
+                    invoke(method);
+                }
 
-            for (LifeCycle impl : impls)
+                for (LifeCycle impl : impls)
+                {
+                    impl.setup();
+                }
+            }
+            finally
             {
-                impl.setup();
+                stopTiming(SETUP, timing);
             }
 
             current = SETUP;
@@ -198,7 +290,49 @@ public class LifeCycle
         return this;
     }
 
+    /**
+     * Enables this LifeCycle, also if it was disabled before. Enabling a service implementation activates the lazy
+     * modules it was loaded with first.
+     *
+     * @return fluent interface
+     */
     public LifeCycle enable()
+    {
+        return enable(true);
+    }
+
+    /**
+     * Enables this LifeCycle. Dependencies used implicitly are not enabled again once they were disabled.
+     *
+     * @param again whether to enable this again if it was disabled
+     *
+     * @return fluent interface
+     */
+    LifeCycle enable(boolean again)
+    {
+        if (info instanceof ServiceImplementationMetadata && !isIn(ENABLED) && modularity instanceof BasicModularity)
+        {
+            // before locking this to keep the lock order of module activation
+            ((BasicModularity)modularity).activateModules(info);
+        }
+        List<LifeCycle> dependents = enableSelf(again);
+        if (dependents != null)
+        {
+            // Enable dependents disabled along with this in dependency order. They lock this to get it injected.
+            for (LifeCycle dependent : dependents)
+            {
+                dependent.enable();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Enables this LifeCycle
+     *
+     * @return the dependents to enable again or null
+     */
+    private synchronized List<LifeCycle> enableSelf(boolean again)
     {
         if (isIn(NONE))
         {
@@ -215,32 +349,92 @@ public class LifeCycle
             this.setup();
         }
 
+        if (isIn(DISABLED) && again)
+        {
+            current = SETUP;
+        }
+
         if (isIn(SETUP))
         {
             this.modularity.log("Enable " + info.getIdentifier().name());
-            modularity.runEnableHandlers(getInstance());
-
-            invoke(enable);
-            for (SettableMaybe maybe : maybes.values())
+            long[] timing = startTiming();
+            try
             {
-                maybe.provide(getProvided(this));
-            }
+                modularity.runEnableHandlers(getInstance());
 
-            for (LifeCycle impl : impls)
+                invoke(enable);
+                for (LifeCycle impl : impls)
+                {
+                    impl.enable(again);
+                }
+            }
+            finally
             {
-                impl.enable();
+                stopTiming(ENABLED, timing);
             }
 
             current = ENABLED;
+            provided = stableProvided();
+            updateService();
+            provideMaybes();
+
+            List<LifeCycle> dependents = cascaded;
+            cascaded = null;
+            return dependents;
         }
+        return null;
+    }
 
+    /**
+     * Disables this LifeCycle after disabling everything transitively requiring it.
+     * The dependents disabled this way are enabled again when this LifeCycle gets enabled again.
+     *
+     * @return fluent interface
+     */
+    public LifeCycle disable()
+    {
+        if (isIn(ENABLED))
+        {
+            // Dependents are disabled without holding the lock of this LifeCycle
+            List<LifeCycle> disabled = disableDependents();
+            synchronized (this)
+            {
+                if (isIn(ENABLED))
+                {
+                    this.cascaded = disabled;
+                    disableSelf();
+                }
+            }
+        }
         return this;
     }
 
-    public LifeCycle disable()
+    private List<LifeCycle> disableDependents()
+    {
+        Node node = modularity.getGraph().getNode(info.getIdentifier());
+        if (node == null)
+        {
+            return null;
+        }
+        List<Node> dependents = modularity.getGraph().getDependents(node);
+        LinkedList<LifeCycle> disabled = new LinkedList<LifeCycle>();
+        for (int i = dependents.size() - 1; i >= 0; i--) // Disable in reverse dependency order
+        {
+            LifeCycle dependent = modularity.getLifecycle(dependents.get(i).getInformation().getIdentifier());
+            if (dependent.isIn(ENABLED))
+            {
+                dependent.disableSelf();
+                disabled.addFirst(dependent);
+            }
+        }
+        return disabled;
+    }
+
+    private synchronized void disableSelf()
     {
         if (isIn(ENABLED))
         {
+            provided = null;
             modularity.runDisableHandlers(getInstance());
             invoke(disable);
 
@@ -248,21 +442,29 @@ public class LifeCycle
             {
                 maybe.remove();
             }
+            for (SettableMaybe maybe : held)
+            {
+                maybe.unsubscribe(false);
+            }
 
             // TODO if active impl replace in service with inactive OR disable service too
-            // TODO if service disable all impls too
-            modularity.getGraph().getNode(info.getIdentifier()).getPredecessors(); // TODO somehow implement reload too
-            // TODO disable predecessors
-
             for (LifeCycle impl : impls)
             {
                 impl.disable();
             }
 
             current = DISABLED;
+            updateService();
         }
+    }
 
-        return this;
+    private void updateService()
+    {
+        LifeCycle service = this.service;
+        if (service != null && service.instance instanceof ServiceProvider)
+        {
+            ((ServiceProvider)service.instance).update();
+        }
     }
 
     private void invoke(Method method)
@@ -300,6 +502,61 @@ public class LifeCycle
         }
     }
 
+    /**
+     * Starts measuring a state transition. Time spent in nested transitions of other LifeCycles is excluded.
+     */
+    private static long[] startTiming()
+    {
+        long[] nested = NESTED_TIME.get();
+        long[] timing = {System.nanoTime(), nested[0]};
+        nested[0] = 0;
+        return timing;
+    }
+
+    private void stopTiming(State state, long[] timing)
+    {
+        long[] nested = NESTED_TIME.get();
+        long elapsed = System.nanoTime() - timing[0];
+        synchronized (durations)
+        {
+            durations.put(state, elapsed - nested[0]);
+        }
+        nested[0] = timing[1] + elapsed;
+    }
+
+    /**
+     * Returns the time in nanoseconds spent in the transition to given state,
+     * excluding time spent transitioning dependencies
+     *
+     * @param state the state
+     *
+     * @return the duration or 0 if not measured
+     */
+    public long getDuration(State state)
+    {
+        Long duration;
+        synchronized (durations)
+        {
+            duration = durations.get(state);
+        }
+        return duration == null ? 0 : duration;
+    }
+
+    /**
+     * Returns the time in nanoseconds spent instantiating, setting up and enabling this and its implementations
+     *
+     * @return the total duration
+     */
+    public long getTotalDuration()
+    {
+        long total = getDuration(INSTANTIATED) + getDuration(SETUP) + getDuration(ENABLED);
+        for (LifeCycle impl : impls)
+        {
+            total += impl.getTotalDuration();
+        }
+        return total;
+    }
+
     public boolean isInstantiated()
     {
         return instance != null;
@@ -333,32 +590,130 @@ public class LifeCycle
     }
 
     @SuppressWarnings("unchecked")
-    public Maybe getMaybe(LifeCycle other)
+    public synchronized Maybe getMaybe(LifeCycle other)
     {
         Dependency identifier = other == null ? null : other.getInformation().getIdentifier();
         SettableMaybe maybe = maybes.get(identifier);
         if (maybe == null)
         {
-            maybe = new SettableMaybe(getProvided(other));
+            // Placeholders for dependencies that are not loaded yet start out empty
+            maybe = new SettableMaybe(other, isIn(NONE) ? null : getProvided(other));
             maybes.put(identifier, maybe);
         }
+        if (other != null)
+        {
+            other.held.add(maybe); // not locking other, it may be instantiated on another thread
+        }
         return maybe;
     }
 
-    public Object getProvided(LifeCycle lifeCycle)
+    /**
+     * Returns the provided object if it is available without any further checks or null
+     *
+     * @return the provided object or null
+     */
+    public Object getCachedProvided()
+    {
+        touch();
+        return provided;
+    }
+
+    private void touch()
     {
-        boolean enable = true;
-        if (info instanceof ModuleMetadata)
+        if (!accessed.get())
         {
-            enable = false;
+            accessed.set(true); // Written only once per eviction sweep
         }
-        if (instance == null)
+    }
+
+    /**
+     * Collects this LifeCycle if it was accessed since the last time this was checked.
+     * Calls on the proxy of a service count as accesses of its implementations.
+     *
+     * @param accessed the accessed LifeCycles
+     */
+    void pollAccessed(Set<LifeCycle> accessed)
+    {
+        if (this.accessed.getAndSet(false)) // An access between reading and clearing would be lost otherwise
         {
-            this.instantiate();
+            accessed.add(this);
+        }
+        Object instance = this.instance;
+        if (instance instanceof ServiceProvider && ((ServiceProvider)instance).pollAccessed())
+        {
+            accessed.addAll(impls);
         }
-        if (enable)
+    }
+
+    /**
+     * Drops the instance of a disabled LifeCycle. It gets instantiated again when it is enabled the next time.
+     *
+     * @return true if released
+     */
+    synchronized boolean release()
+    {
+        if (!isIn(DISABLED))
         {
-            this.enable(); // Instantiate Setup and enable dependency before providing it to someone else
+            return false;
+        }
+        instance = null;
+        provided = null;
+        enable = null;
+        disable = null;
+        setup.clear();
+        cascaded = null;
+        dropHeld();
+        current = LOADED;
+        return true;
+    }
+
+    /**
+     * Returns the object provided to everyone or null if it depends on the requester
+     */
+    private Object stableProvided()
+    {
+        Object toSet = instance;
+        if (toSet instanceof ServiceProvider)
+        {
+            return ((ServiceProvider)toSet).get(); // The proxy never changes
+        }
+        if (toSet instanceof Provider || toSet instanceof ValueProvider)
+        {
+            return null;
+        }
+        return toSet;
+    }
+
+    public Object getProvided(LifeCycle lifeCycle)
+    {
+        touch();
+        Object cached = provided;
+        if (cached != null)
+        {
+            return cached;
+        }
+        State state = current;
+        // Modules are provided as soon as they are instantiated everything else has to be enabled first
+        boolean module = info instanceof ModuleMetadata && !isLazy();
+        boolean ready = state == ENABLED || state == PROVIDED || module && state != NONE && state != LOADED;
+        if (!ready)
+        {
+            if (module)
+            {
+                synchronized (this)
+                {
+                    if (instance == null)
+                    {
+                        this.instantiate();
+                    }
+                }
+            }
+            else
+            {
+                // Instantiate Setup and enable dependency before providing it to someone else
+                // Not holding the lock of this as enabling an implementation activates modules first
+                this.enable(false);
+            }
         }
         Object toSet = instance;
         if (toSet instanceof Provider)
@@ -372,9 +727,79 @@ public class LifeCycle
         return toSet;
     }
 
+    private boolean isLazy()
+    {
+        if (modularity instanceof BasicModularity)
+        {
+            return ((BasicModularity)modularity).isLazy(info);
+        }
+        return info instanceof ModuleMetadata && ((ModuleMetadata)info).isLazy();
+    }
+
     public void addImpl(LifeCycle impl)
     {
+        impl.service = this;
         this.impls.add(impl);
+        if (instance instanceof ServiceProvider)
+        {
+            ((ServiceProvider)instance).update();
+        }
+    }
+
+    /**
+     * Disables and removes the implementations loaded by given ClassLoader
+     *
+     * @param classLoader the ClassLoader
+     */
+    void removeImpls(ClassLoader classLoader)
+    {
+        boolean removed = false;
+        for (LifeCycle impl : impls)
+        {
+            if (impl.info.getClassLoader() == classLoader)
+            {
+                impl.disable();
+                impls.remove(impl);
+                impl.unload();
+                removed = true;
+            }
+        }
+        if (removed && instance instanceof ServiceProvider)
+        {
+            ((ServiceProvider)instance).update();
+        }
+    }
+
+    /**
+     * Drops everything this LifeCycle references so nothing keeps the ClassLoader of an unloaded module alive.
+     * Handles still pointing to this LifeCycle look it up again.
+     */
+    synchronized void unload()
+    {
+        current = NONE;
+        instance = null;
+        provided = null;
+        info = null;
+        enable = null;
+        disable = null;
+        setup.clear();
+        cascaded = null;
+        maybes.clear();
+        impls.clear();
+        service = null;
+        dropHeld();
+    }
+
+    /**
+     * Removes the callbacks the dropped instance added to the Maybes it was handed
+     */
+    private void dropHeld()
+    {
+        for (SettableMaybe maybe : held)
+        {
+            maybe.unsubscribe(true);
+        }
+        held.clear();
     }
 
     public DependencyInformation getInformation()
@@ -22,6 +22,8 @@
  */
 package de.cubeisland.engine.modularity.core;
 
+import java.util.concurrent.Executor;
+
 public interface Maybe<T>
 {
     /**
@@ -38,9 +40,46 @@ public interface Maybe<T>
      */
     boolean isAvailable();
 
+    /**
+     * Adds a callback run with the T whenever it becomes available or right away if it is available already.
+     * Adding a callback again does nothing. Callbacks added while the dependent is enabled are removed when it gets
+     * disabled, all others when its instance is dropped.
+     *
+     * @param callback the callback
+     */
     void onAvailable(Callback<T> callback);
+
+    /**
+     * Adds a callback run on given Executor with the T whenever it becomes available or right away if it is
+     * available already
+     *
+     * @param callback the callback
+     * @param executor the executor to run the callback on
+     */
+    void onAvailable(Callback<T> callback, Executor executor);
+
+    /**
+     * Adds a callback run with the T whenever it is removed
+     *
+     * @param callback the callback
+     */
     void onRemove(Callback<T> callback);
 
+    /**
+     * Adds a callback run on given Executor with the T whenever it is removed
+     *
+     * @param callback the callback
+     * @param executor the executor to run the callback on
+     */
+    void onRemove(Callback<T> callback, Executor executor);
+
+    /**
+     * Removes a callback added by {@link #onAvailable} or {@link #onRemove}
+     *
+     * @param callback the callback
+     */
+    void unsubscribe(Callback<T> callback);
+
     interface Callback<T>
     {
         void react(T dep);
@@ -22,13 +22,16 @@
  */
 package de.cubeisland.engine.modularity.core;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.util.List;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 
 public class MethodInjection extends InjectionPoint
 {
+    private static final MethodType TYPE = MethodType.methodType(void.class, Object.class, Object[].class);
     private String name;
 
     public MethodInjection(Dependency self, List<Dependency> dependencies, String name)
@@ -37,26 +40,37 @@ public class MethodInjection extends InjectionPoint
         this.name = name;
     }
 
+    @Override
+    protected Object resolve(Class<?> clazz, Modularity modularity) throws ReflectiveOperationException
+    {
+        Method method = clazz.getMethod(name, getDependencies(modularity));
+        MethodHandle handle = MethodHandles.lookup().unreflect(method);
+        return handle.asSpreader(Object[].class, getDependencies().size()).asType(TYPE);
+    }
+
     @Override
     public Object inject(Modularity modularity, LifeCycle lifeCycle)
     {
-        try
+        if (hasInjector())
         {
-            Method method = getClazz(getSelf(), lifeCycle).getMethod(name, getDependencies(modularity));
-            method.invoke(lifeCycle.getInstance(), collectDependencies(modularity, lifeCycle));
-            return lifeCycle.getInstance();
+            return injectDirect(lifeCycle.getInstance(), collectDependencies(modularity, lifeCycle));
         }
-        catch (NoSuchMethodException e)
-        {
-            throw new IllegalStateException(e);
-        }
-        catch (InvocationTargetException e)
+        MethodHandle method = (MethodHandle)getTarget(modularity, lifeCycle);
+        Object instance = lifeCycle.getInstance();
+        Object[] deps = collectDependencies(modularity, lifeCycle);
+        try
         {
-            throw new IllegalStateException(e);
+            method.invokeExact(instance, deps);
         }
-        catch (IllegalAccessException e)
+        catch (Throwable t)
         {
-            throw new IllegalStateException(e);
+            throw rethrow(t);
         }
+        return instance;
+    }
+
+    public String getName()
+    {
+        return name;
     }
 }
@@ -25,10 +25,15 @@ package de.cubeisland.engine.modularity.core;
 import java.io.File;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
+import java.util.Collection;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 import de.cubeisland.engine.modularity.core.graph.DependencyGraph;
+import de.cubeisland.engine.modularity.core.service.InvocationMetrics;
+import de.cubeisland.engine.modularity.core.service.ProxyFactory;
+import de.cubeisland.engine.modularity.core.service.SelectionStrategy;
 
 public interface Modularity
 {
@@ -45,6 +50,16 @@ public interface Modularity
     void loadFromClassPath(String... filter);
 
     <T> T provide(Class<T> type);
+
+    /**
+     * Returns a reusable handle to the object provided for given type.
+     * Prefer this over {@link #provide(Class)} on hot paths.
+     *
+     * @param type the type
+     *
+     * @return the handle
+     */
+    <T> Handle<T> handle(Class<T> type);
     LifeCycle getLifecycle(Class type);
 
     LifeCycle getLifecycle(Dependency dep);
@@ -53,8 +68,64 @@ public interface Modularity
 
     void enableModules();
 
+    /**
+     * Sets up and enables only the modules loaded since the last call to {@link #enableModules()} or this method,
+     * the modules depending on them that could not be enabled before and dependencies optional dependents are waiting for
+     */
+    void enableLoaded();
+
     void disableModules();
 
+    /**
+     * Marks a module as lazy. Lazy modules are not set up or enabled with the other modules but when they are first
+     * provided or an implementation of a service loaded with them is enabled.
+     *
+     * @param module the class name of the module
+     * @param lazy   whether the module is lazy
+     */
+    void setLazy(String module, boolean lazy);
+
+    /**
+     * Disables the enabled modules not accessed for given time and the service implementations loaded with them and
+     * drops their instances. Evicted modules are lazy from then on and get enabled again when used.
+     * <p>
+     * Modules count as accessed when they are provided or when a service implemented by their ClassLoader is called.
+     * Accesses are sampled by this method, so it has to be called periodically.
+     *
+     * @param idleTime the time a module has to be idle
+     * @param unit     the unit of the time
+     *
+     * @return the amount of evicted modules
+     */
+    int evictIdleModules(long idleTime, TimeUnit unit);
+
+    /**
+     * Unloads a module with everything else loaded by its ClassLoader and closes the ClassLoader.
+     * Enabled optional dependents are enabled again without it.
+     *
+     * @param module the module
+     *
+     * @throws IllegalArgumentException if the module is not loaded
+     * @throws IllegalStateException    if the module was loaded from the classpath or is still required
+     */
+    void unload(Dependency module);
+
+    /**
+     * Turns defining packages contained identically in multiple jars only once on or off.
+     * Applies to sources loaded from now on. Jars loaded together share the most.
+     *
+     * @param share whether to share identical packages
+     */
+    void setShareLibraries(boolean share);
+
+    /**
+     * Sets the ClassPreloader recording and preloading the classes of sources loaded from now on.
+     * A ClassPreloader replaced by another one or null is shut down.
+     *
+     * @param preloader the ClassPreloader or null to stop attaching new sources
+     */
+    void setPreloader(ClassPreloader preloader);
+
     /**
      * Returns the InformationLoader
      *
@@ -64,6 +135,48 @@ public interface Modularity
 
     Set<LifeCycle> getModules();
 
+    /**
+     * Returns the LifeCycles created so far without creating any
+     *
+     * @return the LifeCycles
+     */
+    Collection<LifeCycle> getLifecycles();
+
+    /**
+     * Sets the factory for service proxies. Services fall back to {@link java.lang.reflect.Proxy} without one.
+     *
+     * @param factory the factory or null
+     */
+    void setProxyFactory(ProxyFactory factory);
+
+    ProxyFactory getProxyFactory();
+
+    /**
+     * Sets the strategy selecting between the implementations of a service.
+     * Services select the enabled implementation with the highest priority by default.
+     *
+     * @param service  the service interface
+     * @param strategy the strategy or null for the default
+     */
+    void setSelectionStrategy(Class<?> service, SelectionStrategy strategy);
+
+    /**
+     * Turns recording per method invocation metrics of a service on or off
+     *
+     * @param service the service interface
+     * @param enabled whether to record metrics
+     */
+    void setMetricsEnabled(Class<?> service, boolean enabled);
+
+    /**
+     * Returns the invocation metrics of a service
+     *
+     * @param service the service interface
+     *
+     * @return the metrics or null if not recorded
+     */
+    InvocationMetrics getMetrics(Class<?> service);
+
     /**
      * Returns the loaded class with given name. Searching first in the ClassLoaders of the dependencies.
      *
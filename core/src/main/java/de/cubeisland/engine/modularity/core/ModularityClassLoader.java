@@ -22,42 +22,54 @@
  */
 package de.cubeisland.engine.modularity.core;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.Manifest;
 import de.cubeisland.engine.modularity.core.graph.Dependency;
 
 /**
  * The ClassLoader for a single file
+ * <p>
+ * Classes and resources of a jar are served from a {@link JarSource} indexing its entries once.
+ * Multiple jars may be grouped into one ClassLoader by {@link #addSource(URL)} to save the overhead of a ClassLoader
+ * per jar.
+ * <p>
+ * The ClassLoader is parallel capable so loading different classes does not serialize on the ClassLoader.
+ * Other ClassLoaders search it without taking its lock for the class name to avoid deadlocks between two ClassLoaders
+ * searching each other. Concurrent definitions of the same class resolve to the first one defined.
  */
 public class ModularityClassLoader extends URLClassLoader
 {
-    private static final Method addURL;
+    private static final ThreadLocal<Boolean> PRELOADING = new ThreadLocal<Boolean>();
+
     static
     {
-        try
-        {
-            addURL = URLClassLoader.class.getDeclaredMethod("addURL", URL.class);
-            addURL.setAccessible(true);
-        }
-        catch (SecurityException e)
-        {
-            throw new IllegalStateException(e);
-        }
-        catch (NoSuchMethodException e)
-        {
-            throw new IllegalStateException(e);
-        }
+        registerAsParallelCapable();
     }
 
     private final Map<String, Class> classMap = new ConcurrentHashMap<String, Class>();
     private final Modularity modularity;
     private URL sourceURL;
-    private final LinkedHashSet<Dependency> dependencies;
+    private volatile Set<Dependency> dependencies;
+    private final List<JarSource> sources = new CopyOnWriteArrayList<JarSource>();
+    private volatile boolean unindexed; // A source is not a jar and has to be searched by the URLClassLoader
+    private volatile SharedLibraries libraries;
+    private volatile Set<String> sharedPackages = Collections.emptySet();
 
     public ModularityClassLoader(Modularity modularity, URL sourceURL, LinkedHashSet<Dependency> dependencies, ClassLoader parent)
     {
@@ -65,24 +77,46 @@ public class ModularityClassLoader extends URLClassLoader
         this.modularity = modularity;
         this.sourceURL = sourceURL;
         this.dependencies = dependencies;
+        // The source is not added to the parent. Classes loaded by the parent could never be unloaded.
+        open(sourceURL);
+    }
 
-        if (parent instanceof URLClassLoader) // if parent classloader is url classloader add the url to it
+    private void open(URL url)
+    {
+        JarSource source = JarSource.open(url);
+        if (source == null)
         {
-            try
-            {
-                addURL.invoke(parent, sourceURL);
-            }
-            catch (IllegalAccessException e)
-            {
-                throw new IllegalStateException(e);
-            }
-            catch (InvocationTargetException e)
-            {
-                throw new IllegalStateException(e);
-            }
+            unindexed = true;
+        }
+        else
+        {
+            sources.add(source);
         }
     }
 
+    /**
+     * Adds another jar to this ClassLoader. The jars of a ClassLoader share their classes and are unloaded together.
+     *
+     * @param url the URL of the jar
+     */
+    public void addSource(URL url)
+    {
+        addURL(url);
+        open(url);
+    }
+
+    /**
+     * Adds dependencies to search first for classes not found in this ClassLoader
+     *
+     * @param dependencies the dependencies
+     */
+    public synchronized void addDependencies(Collection<Dependency> dependencies)
+    {
+        Set<Dependency> added = new LinkedHashSet<Dependency>(this.dependencies);
+        added.addAll(dependencies);
+        this.dependencies = added;
+    }
+
     @Override
     protected Class<?> findClass(String name) throws ClassNotFoundException
     {
@@ -90,16 +124,40 @@ public class ModularityClassLoader extends URLClassLoader
     }
 
     public Class<?> findClass(String name, boolean global) throws ClassNotFoundException
+    {
+        Class<?> clazz = lookup(name, global);
+        if (clazz == null)
+        {
+            throw new ClassNotFoundException(name);
+        }
+        return clazz;
+    }
+
+    /**
+     * Finds a class defined by this ClassLoader without throwing when it is not found
+     *
+     * @param name the name of the class
+     *
+     * @return the class or null
+     */
+    Class<?> findLocalClass(String name)
+    {
+        return lookup(name, false);
+    }
+
+    private Class<?> lookup(String name, boolean global)
     {
         Class clazz = classMap.get(name);
         if (clazz == null)
         {
-            try
+            if (sharedPackages.contains(JarSource.packageOf(name)))
+            {
+                clazz = libraries.findClass(name);
+            }
+            else
             {
-                clazz = super.findClass(name);
+                clazz = findInSource(name);
             }
-            catch (ClassNotFoundException ignored)
-            {}
 
             if (clazz == null && global)
             {
@@ -108,13 +166,242 @@ public class ModularityClassLoader extends URLClassLoader
 
             if (clazz == null)
             {
-                throw new ClassNotFoundException(name);
+                return null;
             }
             this.classMap.put(name, clazz);
         }
         return clazz;
     }
 
+    private Class<?> findInSource(String name)
+    {
+        Class<?> clazz = findLoadedClass(name);
+        if (clazz != null)
+        {
+            return clazz;
+        }
+        try
+        {
+            String path = name.replace('.', '/') + ".class";
+            for (JarSource source : sources)
+            {
+                JarEntry entry = source.getEntry(path);
+                if (entry != null)
+                {
+                    definePackage(JarSource.packageOf(name), source);
+                    byte[] bytes = source.read(entry);
+                    clazz = defineClass(name, bytes, 0, bytes.length, source.getCodeSource());
+                    if (PRELOADING.get() == null)
+                    {
+                        source.defined(name);
+                    }
+                    return clazz;
+                }
+            }
+            return unindexed ? super.findClass(name) : null;
+        }
+        catch (ClassNotFoundException ignored)
+        {
+            return null;
+        }
+        catch (IOException e)
+        {
+            return null;
+        }
+        catch (LinkageError e)
+        {
+            clazz = findLoadedClass(name); // Another thread defined it first
+            if (clazz == null)
+            {
+                throw e;
+            }
+            return clazz;
+        }
+    }
+
+    @SuppressWarnings("deprecation")
+    private void definePackage(String name, JarSource source)
+    {
+        if (name.isEmpty() || getPackage(name) != null)
+        {
+            return;
+        }
+        try
+        {
+            Manifest manifest = source.getManifest();
+            if (manifest == null)
+            {
+                definePackage(name, null, null, null, null, null, null, null);
+            }
+            else
+            {
+                definePackage(name, manifest, source.getURL());
+            }
+        }
+        catch (IllegalArgumentException ignored)
+        {
+            // Defined concurrently
+        }
+    }
+
+    /**
+     * Returns the packages of the jar loaded by this ClassLoader
+     *
+     * @return the packages or null if unknown
+     */
+    public Set<String> getPackageNames()
+    {
+        if (unindexed)
+        {
+            return null;
+        }
+        if (sources.size() == 1)
+        {
+            return sources.get(0).getPackages();
+        }
+        Set<String> packages = new HashSet<String>();
+        for (JarSource source : sources)
+        {
+            packages.addAll(source.getPackages());
+        }
+        return packages;
+    }
+
+    List<JarSource> getSources()
+    {
+        return sources;
+    }
+
+    /**
+     * Loads and links classes in given order without initializing them.
+     * Classes preloaded are not recorded as used.
+     * <p>
+     * There is no API to link a class without initializing it. HotSpot links a class when its methods are reflected,
+     * other JVMs may only load the classes. The reflection data is held softly and dropped when memory runs low.
+     *
+     * @param names the names of the classes
+     *
+     * @return the amount of classes found
+     */
+    public int preload(List<String> names)
+    {
+        PRELOADING.set(Boolean.TRUE);
+        try
+        {
+            int count = 0;
+            for (String name : names)
+            {
+                try
+                {
+                    loadClass(name, true).getDeclaredMethods(); // Links and verifies the class on HotSpot
+                    count++;
+                }
+                catch (ClassNotFoundException ignored)
+                {
+                }
+                catch (LinkageError ignored)
+                {
+                }
+            }
+            return count;
+        }
+        finally
+        {
+            PRELOADING.remove();
+        }
+    }
+
+    /**
+     * Returns the source of a ClassLoader loading a single jar
+     *
+     * @return the source or null if the ClassLoader does not load exactly one jar
+     */
+    JarSource getSource()
+    {
+        return sources.size() == 1 && !unindexed ? sources.get(0) : null;
+    }
+
+    /**
+     * Delegates loading classes of given packages to the shared libraries
+     *
+     * @param libraries the shared libraries
+     * @param packages  the shared packages
+     */
+    void share(SharedLibraries libraries, Set<String> packages)
+    {
+        this.libraries = libraries;
+        this.sharedPackages = packages;
+    }
+
+    SharedLibraries getLibraries()
+    {
+        return libraries;
+    }
+
+    @Override
+    public URL findResource(String name)
+    {
+        for (JarSource source : sources)
+        {
+            JarEntry entry = source.getEntry(name);
+            if (entry != null)
+            {
+                return source.getURL(entry);
+            }
+        }
+        return unindexed ? super.findResource(name) : null;
+    }
+
+    @Override
+    public Enumeration<URL> findResources(String name) throws IOException
+    {
+        List<URL> urls = new ArrayList<URL>();
+        for (JarSource source : sources)
+        {
+            JarEntry entry = source.getEntry(name);
+            if (entry != null)
+            {
+                urls.add(source.getURL(entry));
+            }
+        }
+        if (unindexed)
+        {
+            urls.addAll(Collections.list(super.findResources(name)));
+        }
+        return Collections.enumeration(urls);
+    }
+
+    @Override
+    public InputStream getResourceAsStream(String name)
+    {
+        for (JarSource source : sources)
+        {
+            JarEntry entry = source.getEntry(name);
+            if (entry != null)
+            {
+                try
+                {
+                    return source.open(entry); // Without a URL connection
+                }
+                catch (IOException e)
+                {
+                    return null;
+                }
+            }
+        }
+        return super.getResourceAsStream(name);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        for (JarSource source : sources)
+        {
+            source.close();
+        }
+        super.close();
+    }
+
     @Override
     public URL getResource(String name)
     {
@@ -127,6 +414,39 @@ public class ModularityClassLoader extends URLClassLoader
         return url;
     }
 
+    /**
+     * Defines a class generated for this ClassLoader
+     *
+     * @param name     the name of the class
+     * @param bytecode the bytecode
+     *
+     * @return the defined class
+     */
+    public Class<?> define(String name, byte[] bytecode)
+    {
+        synchronized (getClassLoadingLock(name))
+        {
+            Class<?> clazz = findLoadedClass(name);
+            return clazz == null ? defineClass(name, bytecode, 0, bytecode.length) : clazz;
+        }
+    }
+
+    /**
+     * Drops the classes of given ClassLoader found through other ClassLoaders
+     *
+     * @param classLoader the unloaded ClassLoader
+     */
+    public void forget(ClassLoader classLoader)
+    {
+        for (Iterator<Class> it = classMap.values().iterator(); it.hasNext(); )
+        {
+            if (it.next().getClassLoader() == classLoader)
+            {
+                it.remove();
+            }
+        }
+    }
+
     public URL getSourceURL()
     {
         return sourceURL;
@@ -44,7 +44,7 @@ public abstract class Module implements Instance
     {
         try
         {
-            return (T)getModularity().getLifecycle(clazz).getProvided(lifeCycle);
+            return getModularity().handle(clazz).get(lifeCycle);
         }
         catch (MissingDependencyException e)
         {
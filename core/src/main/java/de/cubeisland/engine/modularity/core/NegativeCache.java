@@ -0,0 +1,77 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of failed lookups. It is cleared as a whole when full or when new sources are loaded.
+ * <p>
+ * A miss is only kept when the cache was not cleared while looking it up.
+ */
+final class NegativeCache<K, V>
+{
+    private final int capacity;
+    private final ConcurrentMap<K, V> misses = new ConcurrentHashMap<K, V>();
+    private volatile int generation;
+
+    NegativeCache(int capacity)
+    {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Returns the generation to pass to {@link #put(Object, Object, int)} after the lookup failed
+     *
+     * @return the current generation
+     */
+    int generation()
+    {
+        return generation;
+    }
+
+    V get(K key)
+    {
+        return misses.get(key);
+    }
+
+    void put(K key, V value, int generation)
+    {
+        if (misses.size() >= capacity)
+        {
+            misses.clear();
+        }
+        misses.put(key, value);
+        if (generation != this.generation)
+        {
+            misses.remove(key); // Cleared while looking up
+        }
+    }
+
+    synchronized void clear()
+    {
+        generation++;
+        misses.clear();
+    }
+}
@@ -22,11 +22,26 @@
  */
 package de.cubeisland.engine.modularity.core;
 
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A Maybe any number of dependents may subscribe to from any thread.
+ * <p>
+ * Callbacks without an Executor run on the thread providing or removing the value. Callbacks on an Executor may run
+ * after the value changed again, they should check {@link #value()} if they need the current state.
+ * <p>
+ * Callbacks are bound to the dependent the Maybe was handed to, so nothing keeps a disabled or dropped instance of
+ * the dependent alive.
+ */
 public final class SettableMaybe<T> implements Maybe<T>
 {
-    private T value;
-    private Callback<T> onAvailable;
-    private Callback<T> onRemove;
+    private volatile T value;
+    private final LifeCycle owner; // the dependent or null
+    private final Queue<Subscriber<T>> onAvailable = new ConcurrentLinkedQueue<Subscriber<T>>();
+    private final Queue<Subscriber<T>> onRemove = new ConcurrentLinkedQueue<Subscriber<T>>();
 
     public SettableMaybe()
     {
@@ -35,6 +50,12 @@ public final class SettableMaybe<T> implements Maybe<T>
 
     public SettableMaybe(T value)
     {
+        this(null, value);
+    }
+
+    SettableMaybe(LifeCycle owner, T value)
+    {
+        this.owner = owner;
         this.value = value;
     }
 
@@ -53,31 +74,176 @@ public final class SettableMaybe<T> implements Maybe<T>
     void provide(T value)
     {
         this.value = value;
-        if (onAvailable != null)
+        if (value != null)
         {
-            onAvailable.react(value);
+            for (Subscriber<T> subscriber : onAvailable)
+            {
+                subscriber.available(value);
+            }
         }
     }
 
     void remove()
     {
-        if (onRemove != null)
+        T value = this.value;
+        this.value = null;
+        if (value != null)
         {
-            onRemove.react(value);
+            for (Subscriber<T> subscriber : onAvailable)
+            {
+                subscriber.removed(value);
+            }
+            for (Subscriber<T> subscriber : onRemove)
+            {
+                subscriber.run(value);
+            }
         }
-        value = null;
     }
 
     @Override
     public void onAvailable(Callback<T> callback)
     {
-        this.onAvailable = callback;
+        onAvailable(callback, null);
+    }
+
+    @Override
+    public void onAvailable(Callback<T> callback, Executor executor)
+    {
+        Subscriber<T> subscriber = new Subscriber<T>(callback, executor, isOwnerEnabled());
+        if (!subscribe(onAvailable, subscriber))
+        {
+            return;
+        }
+        // A value provided concurrently is seen either here or by provide, the subscriber runs only once for it
+        T value = this.value;
+        if (value != null)
+        {
+            subscriber.available(value);
+        }
     }
 
     @Override
     public void onRemove(Callback<T> callback)
     {
-        // TODO
-        this.onRemove = callback;
+        onRemove(callback, null);
+    }
+
+    @Override
+    public void onRemove(Callback<T> callback, Executor executor)
+    {
+        subscribe(onRemove, new Subscriber<T>(callback, executor, isOwnerEnabled()));
+    }
+
+    @Override
+    public void unsubscribe(Callback<T> callback)
+    {
+        for (Subscriber<T> subscriber : onAvailable)
+        {
+            if (subscriber.callback == callback)
+            {
+                onAvailable.remove(subscriber);
+            }
+        }
+        for (Subscriber<T> subscriber : onRemove)
+        {
+            if (subscriber.callback == callback)
+            {
+                onRemove.remove(subscriber);
+            }
+        }
+    }
+
+    /**
+     * Removes the callbacks of the dependent
+     *
+     * @param all whether to remove all callbacks or only the ones added while the dependent was enabled
+     */
+    void unsubscribe(boolean all)
+    {
+        for (Subscriber<T> subscriber : onAvailable)
+        {
+            if (all || subscriber.enabled)
+            {
+                onAvailable.remove(subscriber);
+            }
+        }
+        for (Subscriber<T> subscriber : onRemove)
+        {
+            if (all || subscriber.enabled)
+            {
+                onRemove.remove(subscriber);
+            }
+        }
+    }
+
+    private static <T> boolean subscribe(Queue<Subscriber<T>> subscribers, Subscriber<T> subscriber)
+    {
+        synchronized (subscribers) // Only subscribing locks, notifying iterates without
+        {
+            for (Subscriber<T> existing : subscribers)
+            {
+                if (existing.callback == subscriber.callback)
+                {
+                    return false; // Subscribing twice would run the callback twice
+                }
+            }
+            subscribers.add(subscriber);
+            return true;
+        }
+    }
+
+    private boolean isOwnerEnabled()
+    {
+        // @Enable methods run in SETUP
+        return owner != null && (owner.isIn(LifeCycle.State.SETUP) || owner.isIn(LifeCycle.State.ENABLED));
+    }
+
+    private static final class Subscriber<T>
+    {
+        private final Callback<T> callback;
+        private final Executor executor;
+        private final AtomicReference<T> notified = new AtomicReference<T>(); // the value last reported available
+        private final boolean enabled; // added while the dependent was enabled
+
+        private Subscriber(Callback<T> callback, Executor executor, boolean enabled)
+        {
+            if (callback == null)
+            {
+                throw new IllegalArgumentException("The callback may not be null");
+            }
+            this.callback = callback;
+            this.executor = executor;
+            this.enabled = enabled;
+        }
+
+        void available(T value)
+        {
+            if (notified.getAndSet(value) != value)
+            {
+                run(value);
+            }
+        }
+
+        void removed(T value)
+        {
+            notified.compareAndSet(value, null);
+        }
+
+        void run(final T value)
+        {
+            if (executor == null)
+            {
+                callback.react(value);
+                return;
+            }
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    callback.react(value);
+                }
+            });
+        }
     }
 }
@@ -0,0 +1,359 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.io.IOException;
+import java.security.SecureClassLoader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+
+/**
+ * Defines packages contained byte for byte in multiple module jars once for all of them.
+ * <p>
+ * Packages are compared by their digests. The first version of a package seen is the one shared, jars containing any
+ * other version of a package are isolated and define all of their classes themselves. Sharing is decided once per
+ * ClassLoader when it is registered, so a ClassLoader never mixes own and shared classes of a package.
+ * <p>
+ * The packages first shared by ClassLoaders registered together form a library with its own ClassLoader. A library
+ * resolves classes it does not share through its members only and is dropped along with its ClassLoader when its
+ * last member is unregistered.
+ */
+final class SharedLibraries
+{
+    private final Modularity modularity;
+    private final Map<String, Digest> digests = new HashMap<String, Digest>(); // guarded by this
+    private final Map<ModularityClassLoader, List<String>> registered = new HashMap<ModularityClassLoader, List<String>>(); // guarded by this
+    private final Map<String, Library> libraries = new ConcurrentHashMap<String, Library>();
+
+    SharedLibraries(Modularity modularity)
+    {
+        this.modularity = modularity;
+    }
+
+    /**
+     * Registers newly loaded ClassLoaders and makes them delegate the packages they share to a library
+     *
+     * @param loaders the ClassLoaders loaded together
+     */
+    synchronized void register(Collection<ModularityClassLoader> loaders)
+    {
+        Set<ModularityClassLoader> isolated = new HashSet<ModularityClassLoader>();
+        Map<String, List<ModularityClassLoader>> candidates = new HashMap<String, List<ModularityClassLoader>>();
+        for (ModularityClassLoader loader : loaders)
+        {
+            JarSource source = loader.getSource();
+            if (source == null)
+            {
+                isolated.add(loader);
+                continue;
+            }
+            List<String> counted = new ArrayList<String>();
+            for (String name : source.getPackages())
+            {
+                long digest = source.getDigest(name);
+                Digest known = digests.get(name);
+                if (known == null)
+                {
+                    digests.put(name, new Digest(digest));
+                    counted.add(name);
+                }
+                else if (known.digest == digest)
+                {
+                    known.count++;
+                    counted.add(name);
+                }
+                else
+                {
+                    modularity.log("Isolated " + loader.getSourceURL() + " containing another version of " + name);
+                    isolated.add(loader);
+                }
+                List<ModularityClassLoader> list = candidates.get(name);
+                if (list == null)
+                {
+                    list = new ArrayList<ModularityClassLoader>();
+                    candidates.put(name, list);
+                }
+                list.add(loader);
+            }
+            registered.put(loader, counted);
+        }
+
+        Library created = null;
+        Map<ModularityClassLoader, Set<String>> shared = new HashMap<ModularityClassLoader, Set<String>>();
+        for (Entry<String, List<ModularityClassLoader>> entry : candidates.entrySet())
+        {
+            List<ModularityClassLoader> sharing = new ArrayList<ModularityClassLoader>(entry.getValue());
+            sharing.removeAll(isolated);
+            Library library = libraries.get(entry.getKey());
+            if (sharing.isEmpty() || library == null && sharing.size() < 2)
+            {
+                continue;
+            }
+            if (library == null)
+            {
+                if (created == null)
+                {
+                    created = new Library(this, modularity.getClass().getClassLoader());
+                }
+                library = created;
+                libraries.put(entry.getKey(), library);
+            }
+            library.add(entry.getKey(), sharing);
+            for (ModularityClassLoader loader : sharing)
+            {
+                Set<String> packages = shared.get(loader);
+                if (packages == null)
+                {
+                    packages = new HashSet<String>();
+                    shared.put(loader, packages);
+                }
+                packages.add(entry.getKey());
+            }
+        }
+        for (Entry<ModularityClassLoader, Set<String>> entry : shared.entrySet())
+        {
+            entry.getKey().share(this, Collections.unmodifiableSet(entry.getValue()));
+        }
+    }
+
+    /**
+     * Removes an unloaded ClassLoader. Packages it shared are read from another member from now on.
+     *
+     * @param loader the unloaded ClassLoader
+     */
+    synchronized void unregister(ModularityClassLoader loader)
+    {
+        List<String> counted = registered.remove(loader);
+        if (counted != null)
+        {
+            for (String name : counted)
+            {
+                Digest known = digests.get(name);
+                if (known != null && --known.count == 0)
+                {
+                    digests.remove(name);
+                }
+            }
+        }
+        for (Iterator<Entry<String, Library>> it = libraries.entrySet().iterator(); it.hasNext(); )
+        {
+            Entry<String, Library> entry = it.next();
+            if (entry.getValue().remove(entry.getKey(), loader))
+            {
+                it.remove(); // Once no package is left nothing references the library anymore
+            }
+        }
+    }
+
+    /**
+     * Loads a class of a shared package
+     *
+     * @param name the name of the class
+     *
+     * @return the class or null if not found
+     */
+    Class<?> findClass(String name)
+    {
+        Library library = libraries.get(JarSource.packageOf(name));
+        if (library == null)
+        {
+            return null;
+        }
+        try
+        {
+            return library.classLoader.loadClass(name);
+        }
+        catch (ClassNotFoundException e)
+        {
+            return null;
+        }
+    }
+
+    private static final class Digest
+    {
+        private final long digest;
+        private int count = 1; // the registered ClassLoaders containing this version
+
+        private Digest(long digest)
+        {
+            this.digest = digest;
+        }
+    }
+
+    private static final class Library
+    {
+        private final SharedClassLoader classLoader;
+        // the members sharing each package, the first one is the owner the package is read from
+        private final Map<String, List<ModularityClassLoader>> members = new ConcurrentHashMap<String, List<ModularityClassLoader>>();
+
+        private Library(SharedLibraries libraries, ClassLoader parent)
+        {
+            this.classLoader = new SharedClassLoader(libraries, this, parent);
+        }
+
+        private void add(String pack, List<ModularityClassLoader> loaders)
+        {
+            List<ModularityClassLoader> list = members.get(pack);
+            List<ModularityClassLoader> added = new ArrayList<ModularityClassLoader>();
+            if (list != null)
+            {
+                added.addAll(list);
+            }
+            added.addAll(loaders);
+            members.put(pack, Collections.unmodifiableList(added));
+        }
+
+        /**
+         * Removes a member from a package
+         *
+         * @return true if the package has no members left
+         */
+        private boolean remove(String pack, ModularityClassLoader loader)
+        {
+            List<ModularityClassLoader> list = members.get(pack);
+            if (list == null || !list.contains(loader))
+            {
+                return false;
+            }
+            List<ModularityClassLoader> removed = new ArrayList<ModularityClassLoader>(list);
+            removed.remove(loader);
+            if (removed.isEmpty())
+            {
+                members.remove(pack);
+                return true;
+            }
+            members.put(pack, Collections.unmodifiableList(removed));
+            return false;
+        }
+
+        private JarSource getSource(String pack)
+        {
+            List<ModularityClassLoader> list = members.get(pack);
+            return list == null ? null : list.get(0).getSources().get(0); // the jar the member was registered with
+        }
+
+        /**
+         * Loads a class the library does not share through the members containing it or else depending on it
+         */
+        private Class<?> findMemberClass(String name) throws ClassNotFoundException
+        {
+            String path = name.replace('.', '/') + ".class";
+            ModularityClassLoader fallback = null;
+            for (List<ModularityClassLoader> list : members.values())
+            {
+                for (ModularityClassLoader member : list)
+                {
+                    for (JarSource source : member.getSources())
+                    {
+                        if (source.getEntry(path) != null)
+                        {
+                            return member.loadClass(name);
+                        }
+                    }
+                    fallback = member;
+                }
+            }
+            if (fallback == null)
+            {
+                throw new ClassNotFoundException(name);
+            }
+            return fallback.loadClass(name);
+        }
+    }
+
+    private static final class SharedClassLoader extends SecureClassLoader
+    {
+        static
+        {
+            registerAsParallelCapable();
+        }
+
+        private final SharedLibraries libraries;
+        private final Library library;
+
+        private SharedClassLoader(SharedLibraries libraries, Library library, ClassLoader parent)
+        {
+            super(parent);
+            this.libraries = libraries;
+            this.library = library;
+        }
+
+        @Override
+        protected Class<?> findClass(String name) throws ClassNotFoundException
+        {
+            String pack = JarSource.packageOf(name);
+            Library library = libraries.libraries.get(pack);
+            if (library == null)
+            {
+                // Referenced from a shared class but not shared itself
+                return this.library.findMemberClass(name);
+            }
+            if (library != this.library)
+            {
+                return library.classLoader.loadClass(name);
+            }
+            JarSource source = library.getSource(pack);
+            JarEntry entry = source == null ? null : source.getEntry(name.replace('.', '/') + ".class");
+            if (entry == null)
+            {
+                throw new ClassNotFoundException(name);
+            }
+            try
+            {
+                definePackage(pack);
+                byte[] bytes = source.read(entry);
+                return defineClass(name, bytes, 0, bytes.length, source.getCodeSource());
+            }
+            catch (IOException e)
+            {
+                throw new ClassNotFoundException(name, e);
+            }
+        }
+
+        @SuppressWarnings("deprecation")
+        private void definePackage(String name)
+        {
+            if (getPackage(name) == null)
+            {
+                try
+                {
+                    definePackage(name, null, null, null, null, null, null, null);
+                }
+                catch (IllegalArgumentException ignored)
+                {
+                    // Defined concurrently
+                }
+            }
+        }
+    }
+}
@@ -22,68 +22,344 @@
  */
 package de.cubeisland.engine.modularity.core.graph;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import de.cubeisland.engine.modularity.core.graph.meta.ModuleMetadata;
 
+/**
+ * The graph of all loaded DependencyInformation.
+ * Modifications are synchronized while lookups do not lock.
+ */
 public class DependencyGraph
 {
-    private Map<Dependency, List<Node>> unresolved = new HashMap<Dependency, List<Node>>();
-    private Map<Dependency, Node> nodes = new HashMap<Dependency, Node>();
+    private static final Node UNRESOLVED = new Node();
+
+    private Map<Dependency, List<Node>> unresolved = new ConcurrentHashMap<Dependency, List<Node>>();
+    private Map<Dependency, Node> nodes = new ConcurrentHashMap<Dependency, Node>();
+    private Map<String, List<Node>> versions = new ConcurrentHashMap<String, List<Node>>();
+    private ConcurrentMap<String, ConcurrentMap<String, Node>> resolved = new ConcurrentHashMap<String, ConcurrentMap<String, Node>>();
     private Node root = new Node();
 
+    // Reverse-reachability index over required dependencies, rebuilt lazily after the graph changed
+    private volatile Index index;
+
     public Node addNode(DependencyInformation info)
     {
-        Node node = new Node(info);
-        // Resolve dependencies of node
-        boolean isDependent = false;
-        for (Dependency id : info.requiredDependencies())
+        return addAll(Collections.singleton(info)).get(0);
+    }
+
+    /**
+     * Adds all given DependencyInformation to the graph in a single pass.
+     * All nodes are indexed before any dependency is resolved so dependencies within the batch are found directly.
+     * Circular dependencies are detected once for the whole batch. If the batch closes a cycle none of it is added.
+     *
+     * @param infos the DependencyInformation to add
+     *
+     * @return the added nodes in iteration order of given infos
+     *
+     * @throws IllegalArgumentException if the batch closes a circular dependency
+     */
+    public synchronized List<Node> addAll(Collection<? extends DependencyInformation> infos)
+    {
+        List<Node> added = new ArrayList<Node>(infos.size());
+        Set<String> names = new HashSet<String>();
+        Map<Dependency, Node> replaced = new HashMap<Dependency, Node>();
+        for (DependencyInformation info : infos)
         {
-            isDependent = true;
-            resolveDependency(node, id);
+            Node node = new Node(info);
+            Dependency identifier = info.getIdentifier();
+            Node previous = nodes.put(identifier, node);
+            if (previous != null && !replaced.containsKey(identifier))
+            {
+                replaced.put(identifier, previous);
+            }
+            List<Node> list = versions.get(identifier.name());
+            if (list == null)
+            {
+                list = new CopyOnWriteArrayList<Node>();
+                versions.put(identifier.name(), list);
+            }
+            list.add(node);
+            names.add(identifier.name());
+            added.add(node);
         }
-        for (Dependency id : info.optionalDependencies())
+        for (String name : names)
         {
-            isDependent = true;
-            resolveDependency(node, id);
+            resolved.remove(name); // Invalidate resolutions for this name
         }
-        if (info instanceof ModuleMetadata)
+
+        Map<Dependency, List<Node>> linked = new HashMap<Dependency, List<Node>>();
+        try
+        {
+            link(added, names, linked);
+            detectCircularDependencies(added);
+        }
+        catch (IllegalArgumentException e)
+        {
+            rollback(added, names, replaced, linked);
+            throw e;
+        }
+        index = null;
+        return added;
+    }
+
+    private void link(List<Node> added, Set<String> names, Map<Dependency, List<Node>> linked)
+    {
+        // Resolve dependencies of nodes
+        for (Node node : added)
         {
-            for (Dependency id : ((ModuleMetadata)info).loadAfter())
+            DependencyInformation info = node.getInformation();
+            boolean isDependent = resolveDependencies(node, info.requiredDependencies());
+            isDependent = resolveDependencies(node, info.optionalDependencies()) || isDependent;
+            if (info instanceof ModuleMetadata)
             {
-                isDependent = true;
-                resolveDependency(node, id);
+                isDependent = resolveDependencies(node, ((ModuleMetadata)info).loadAfter()) || isDependent;
+            }
+            if (!isDependent)
+            {
+                root.link(node);
             }
         }
 
-        // Resolve dependencies to node
-        Dependency found = findVersion(info.getIdentifier(), unresolved.keySet());
-        while (found != null)
+        // Resolve dependencies to nodes
+        for (Iterator<Entry<Dependency, List<Node>>> it = unresolved.entrySet().iterator(); it.hasNext(); )
         {
-            List<Node> dependents = unresolved.remove(found);
-            if (dependents != null)
+            Entry<Dependency, List<Node>> entry = it.next();
+            if (names.contains(entry.getKey().name()))
             {
-                for (Node dependent : dependents)
+                Node dependency = resolve(entry.getKey());
+                if (dependency != null)
                 {
-                    node.addSuccessor(dependent);
+                    it.remove();
+                    linked.put(entry.getKey(), entry.getValue());
+                    for (Node dependent : entry.getValue())
+                    {
+                        dependency.link(dependent);
+                    }
                 }
             }
-            found = findVersion(info.getIdentifier(), unresolved.keySet());
         }
+    }
 
-        if (!isDependent)
+    /**
+     * Restores the graph to the state before the nodes were added
+     *
+     * @param added    the added nodes
+     * @param names    the names of the added nodes
+     * @param replaced the nodes replaced by added nodes with the same identifier
+     * @param linked   the unresolved dependencies resolved to added nodes
+     */
+    private void rollback(List<Node> added, Set<String> names, Map<Dependency, Node> replaced, Map<Dependency, List<Node>> linked)
+    {
+        Set<Node> set = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        set.addAll(added);
+        for (Node node : added)
+        {
+            Dependency identifier = node.getInformation().getIdentifier();
+            if (nodes.get(identifier) == node)
+            {
+                nodes.remove(identifier);
+            }
+            List<Node> list = versions.get(identifier.name());
+            if (list != null)
+            {
+                for (int i = 0; i < list.size(); i++)
+                {
+                    if (list.get(i) == node)
+                    {
+                        list.remove(i);
+                        break;
+                    }
+                }
+                if (list.isEmpty())
+                {
+                    versions.remove(identifier.name());
+                }
+            }
+            node.unlink();
+        }
+        nodes.putAll(replaced);
+        unresolved.putAll(linked);
+        for (Iterator<List<Node>> it = unresolved.values().iterator(); it.hasNext(); )
         {
-            root.addSuccessor(node);
+            List<Node> dependents = it.next();
+            dependents.removeAll(set);
+            if (dependents.isEmpty())
+            {
+                it.remove();
+            }
         }
+        for (String name : names)
+        {
+            resolved.remove(name); // May contain added nodes
+        }
+    }
 
-        nodes.put(info.getIdentifier(), node);
-        return node;
+    /**
+     * Removes given nodes from the graph.
+     * Dependencies of the remaining nodes on removed nodes become unresolved again.
+     *
+     * @param removed the nodes to remove
+     */
+    public synchronized void removeAll(Collection<Node> removed)
+    {
+        Set<Node> set = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        set.addAll(removed);
+        for (Node node : removed)
+        {
+            for (Node dependent : node.getSuccessors())
+            {
+                if (!set.contains(dependent))
+                {
+                    unresolve(dependent, node);
+                }
+            }
+        }
+        Set<String> names = new HashSet<String>();
+        for (Node node : removed)
+        {
+            Dependency identifier = node.getInformation().getIdentifier();
+            nodes.remove(identifier);
+            List<Node> list = versions.get(identifier.name());
+            if (list != null)
+            {
+                for (int i = 0; i < list.size(); i++)
+                {
+                    if (list.get(i) == node) // Node equality ignores the version
+                    {
+                        list.remove(i);
+                        break;
+                    }
+                }
+                if (list.isEmpty())
+                {
+                    versions.remove(identifier.name());
+                }
+            }
+            names.add(identifier.name());
+            node.unlink();
+        }
+        for (String name : names)
+        {
+            resolved.remove(name);
+        }
+        for (Iterator<List<Node>> it = unresolved.values().iterator(); it.hasNext(); )
+        {
+            List<Node> dependents = it.next();
+            dependents.removeAll(set);
+            if (dependents.isEmpty())
+            {
+                it.remove();
+            }
+        }
+        for (Node node : nodes.values())
+        {
+            if (node.getPredecessors().isEmpty())
+            {
+                root.link(node); // Lost all of its dependencies
+            }
+        }
+        index = null;
+    }
+
+    private void unresolve(Node dependent, Node dependency)
+    {
+        DependencyInformation info = dependent.getInformation();
+        Set<Dependency> dependencies = new HashSet<Dependency>(info.requiredDependencies());
+        dependencies.addAll(info.optionalDependencies());
+        if (info instanceof ModuleMetadata)
+        {
+            dependencies.addAll(((ModuleMetadata)info).loadAfter());
+        }
+        for (Dependency id : dependencies)
+        {
+            if (resolve(id) == dependency)
+            {
+                List<Node> list = unresolved.get(id);
+                if (list == null)
+                {
+                    list = new ArrayList<Node>();
+                    unresolved.put(id, list);
+                }
+                list.add(dependent);
+            }
+        }
     }
 
-    public void provided(Dependency dep)
+    private boolean resolveDependencies(Node node, Set<Dependency> dependencies)
+    {
+        for (Dependency id : dependencies)
+        {
+            resolveDependency(node, id);
+        }
+        return !dependencies.isEmpty();
+    }
+
+    /**
+     * Searches for cycles reachable from given nodes.
+     * The graph was acyclic before so every new cycle has to contain at least one of the nodes.
+     * The search keeps its own stack as dependency chains may be longer than the call stack allows.
+     */
+    private void detectCircularDependencies(List<Node> from)
+    {
+        Set<Node> done = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        Set<Node> path = Collections.newSetFromMap(new IdentityHashMap<Node, Boolean>());
+        Deque<Node> stack = new ArrayDeque<Node>();
+        Deque<Iterator<Node>> successors = new ArrayDeque<Iterator<Node>>();
+        for (Node start : from)
+        {
+            if (done.contains(start))
+            {
+                continue;
+            }
+            path.add(start);
+            stack.push(start);
+            successors.push(start.getSuccessors().iterator());
+            while (!stack.isEmpty())
+            {
+                Node node = stack.peek();
+                Iterator<Node> it = successors.peek();
+                if (!it.hasNext())
+                {
+                    stack.pop();
+                    successors.pop();
+                    path.remove(node);
+                    done.add(node);
+                    continue;
+                }
+                Node successor = it.next();
+                if (successor == node || done.contains(successor))
+                {
+                    continue;
+                }
+                if (path.contains(successor))
+                {
+                    throw new IllegalArgumentException("Circular Dependency! " + node.getInformation().getClassName() + " - " + successor.getInformation().getClassName());
+                }
+                path.add(successor);
+                stack.push(successor);
+                successors.push(successor.getSuccessors().iterator());
+            }
+        }
+    }
+
+    public synchronized void provided(Dependency dep)
     {
         unresolved.remove(dep);
     }
@@ -94,19 +370,88 @@ public class DependencyGraph
         {
             return id;
         }
+        VersionRange range = VersionRange.parse(id.version());
+        Dependency best = null;
         for (Dependency dependency : in)
         {
-            if (dependency.name().equals(id.name()))
+            if (dependency.name().equals(id.name()) && range.matches(dependency.version()))
+            {
+                if (range.isPreferred(dependency.version()))
+                {
+                    return dependency;
+                }
+                if (best == null || VersionRange.compare(dependency.version(), best.version()) > 0)
+                {
+                    best = dependency;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Resolves the Node satisfying given dependency.
+     * An exact match of name and version or the preferred version of a soft requirement is chosen first, otherwise
+     * the highest version within the range.
+     * Results are cached per name and range until a Node with the same name is added.
+     * Resolving does not lock. A resolution racing with an invalidation is written into the discarded cache.
+     *
+     * @param dep the dependency
+     *
+     * @return the Node or null if no Node satisfies the dependency
+     */
+    public Node resolve(Dependency dep)
+    {
+        Node node = nodes.get(dep);
+        if (node != null)
+        {
+            return node;
+        }
+        ConcurrentMap<String, Node> cache = resolved.get(dep.name());
+        if (cache == null)
+        {
+            cache = new ConcurrentHashMap<String, Node>();
+            ConcurrentMap<String, Node> existing = resolved.putIfAbsent(dep.name(), cache);
+            if (existing != null)
             {
-                return dependency;
+                cache = existing;
+            }
+        }
+        String key = dep.version() == null ? "*" : dep.version();
+        Node cached = cache.get(key);
+        if (cached != null)
+        {
+            return cached == UNRESOLVED ? null : cached;
+        }
+        List<Node> candidates = versions.get(dep.name());
+        if (candidates != null)
+        {
+            VersionRange range = VersionRange.parse(dep.version());
+            for (Node candidate : candidates)
+            {
+                String version = candidate.getInformation().getIdentifier().version();
+                if (!range.matches(version))
+                {
+                    continue;
+                }
+                if (range.isPreferred(version))
+                {
+                    node = candidate; // e.g. 2.1.0 for a soft requirement of 2.1
+                    break;
+                }
+                if (node == null || VersionRange.compare(version, node.getInformation().getIdentifier().version()) > 0)
+                {
+                    node = candidate;
+                }
             }
         }
-        return null;
+        cache.put(key, node == null ? UNRESOLVED : node);
+        return node;
     }
 
     private void resolveDependency(Node node, Dependency id)
     {
-        Node dependency = nodes.get(findVersion(id, nodes.keySet()));
+        Node dependency = resolve(id);
         if (dependency == null)
         {
             List<Node> list = unresolved.get(id);
@@ -119,7 +464,7 @@ public class DependencyGraph
         }
         else
         {
-            dependency.addSuccessor(node);
+            dependency.link(node);
         }
     }
 
@@ -133,9 +478,128 @@ public class DependencyGraph
         return unresolved;
     }
 
+    /**
+     * Returns all nodes transitively requiring given node in dependency order
+     *
+     * @param node the node
+     *
+     * @return the dependents
+     */
+    public List<Node> getDependents(Node node)
+    {
+        Index current = index;
+        if (current == null)
+        {
+            current = buildIndex();
+        }
+        Integer position = current.positions.get(node);
+        if (position == null)
+        {
+            return Collections.emptyList();
+        }
+        BitSet bits = current.dependents[position];
+        List<Node> result = new ArrayList<Node>(bits.cardinality());
+        for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1))
+        {
+            result.add(current.sorted.get(i));
+        }
+        return result;
+    }
+
+    /**
+     * Sorts all nodes in dependency order and computes the transitive dependents of each node as a BitSet
+     * over the sorted positions
+     */
+    private synchronized Index buildIndex()
+    {
+        if (index != null)
+        {
+            return index;
+        }
+        Map<Node, List<Node>> requiredBy = new IdentityHashMap<Node, List<Node>>();
+        Map<Node, Integer> inDegree = new IdentityHashMap<Node, Integer>();
+        for (Node node : nodes.values())
+        {
+            requiredBy.put(node, new ArrayList<Node>());
+            inDegree.put(node, 0);
+        }
+        for (Node node : nodes.values())
+        {
+            for (Dependency dep : node.getInformation().requiredDependencies())
+            {
+                Node dependency = resolve(dep);
+                if (dependency != null && dependency != node)
+                {
+                    requiredBy.get(dependency).add(node);
+                    inDegree.put(node, inDegree.get(node) + 1);
+                }
+            }
+        }
+
+        List<Node> sorted = new ArrayList<Node>(nodes.size());
+        Map<Node, Integer> positions = new IdentityHashMap<Node, Integer>();
+        LinkedList<Node> ready = new LinkedList<Node>();
+        for (Entry<Node, Integer> entry : inDegree.entrySet())
+        {
+            if (entry.getValue() == 0)
+            {
+                ready.add(entry.getKey());
+            }
+        }
+        while (!ready.isEmpty())
+        {
+            Node node = ready.poll();
+            positions.put(node, sorted.size());
+            sorted.add(node);
+            for (Node dependent : requiredBy.get(node))
+            {
+                int degree = inDegree.get(dependent) - 1;
+                inDegree.put(dependent, degree);
+                if (degree == 0)
+                {
+                    ready.add(dependent);
+                }
+            }
+        }
+
+        BitSet[] dependents = new BitSet[sorted.size()];
+        for (int i = sorted.size() - 1; i >= 0; i--)
+        {
+            BitSet bits = new BitSet(sorted.size());
+            for (Node dependent : requiredBy.get(sorted.get(i)))
+            {
+                int position = positions.get(dependent);
+                bits.set(position);
+                bits.or(dependents[position]);
+            }
+            dependents[i] = bits;
+        }
+        index = new Index(sorted, positions, dependents);
+        return index;
+    }
+
+    private static final class Index
+    {
+        private final List<Node> sorted;
+        private final Map<Node, Integer> positions;
+        private final BitSet[] dependents;
+
+        private Index(List<Node> sorted, Map<Node, Integer> positions, BitSet[] dependents)
+        {
+            this.sorted = sorted;
+            this.positions = positions;
+            this.dependents = dependents;
+        }
+    }
+
+    public Collection<Node> getNodes()
+    {
+        return nodes.values();
+    }
+
     public Node getNode(Dependency dep)
     {
-        return nodes.get(findVersion(dep, nodes.keySet()));
+        return resolve(dep);
     }
 
     public void printOut()
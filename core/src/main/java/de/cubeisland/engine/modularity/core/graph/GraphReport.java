@@ -0,0 +1,417 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import de.cubeisland.engine.modularity.core.LifeCycle;
+import de.cubeisland.engine.modularity.core.Modularity;
+
+import static de.cubeisland.engine.modularity.core.LifeCycle.State.ENABLED;
+import static de.cubeisland.engine.modularity.core.LifeCycle.State.INSTANTIATED;
+import static de.cubeisland.engine.modularity.core.LifeCycle.State.SETUP;
+
+/**
+ * A snapshot of the DependencyGraph annotated with the measured startup durations of each Node.
+ * Durations are split into the own instantiate, setup and enable phases of a Node and the time its service
+ * implementations took.
+ * <p>
+ * Computes the critical path, the longest weighted chain of dependencies, and the slack of every other Node
+ * i.e. how much longer it could take without delaying the startup.
+ */
+public class GraphReport
+{
+    // Nodes are compared by identity as the versions of a module are equal nodes
+    private final Map<Node, long[]> durations = new IdentityHashMap<Node, long[]>();
+    private final Map<Node, Long> earliestFinish = new IdentityHashMap<Node, Long>();
+    private final Map<Node, Long> slack = new IdentityHashMap<Node, Long>();
+    private final List<Node> order = new ArrayList<Node>();
+    private final List<Node> criticalPath = new ArrayList<Node>();
+    private long total = 0;
+
+    public GraphReport(Modularity modularity)
+    {
+        this(modularity.getGraph().getNodes(), measure(modularity));
+    }
+
+    /**
+     * Creates a report from given durations
+     *
+     * @param nodes     the nodes
+     * @param durations the instantiate, setup, enable and implementations durations of the nodes by identity
+     */
+    GraphReport(Collection<Node> nodes, Map<Node, long[]> durations)
+    {
+        for (Node node : nodes)
+        {
+            long[] times = durations.get(node);
+            this.durations.put(node, times == null ? new long[4] : times);
+        }
+        sort();
+        computeCriticalPath();
+    }
+
+    /**
+     * Reads the durations of the existing LifeCycles. Nodes without a LifeCycle were never started.
+     */
+    private static Map<Node, long[]> measure(Modularity modularity)
+    {
+        Map<DependencyInformation, LifeCycle> lifeCycles = new IdentityHashMap<DependencyInformation, LifeCycle>();
+        for (LifeCycle lifeCycle : modularity.getLifecycles())
+        {
+            DependencyInformation info = lifeCycle.getInformation();
+            if (info != null)
+            {
+                lifeCycles.put(info, lifeCycle);
+            }
+        }
+        Map<Node, long[]> durations = new IdentityHashMap<Node, long[]>();
+        for (Node node : modularity.getGraph().getNodes())
+        {
+            LifeCycle lifeCycle = lifeCycles.get(node.getInformation());
+            if (lifeCycle != null)
+            {
+                long[] times = new long[4];
+                times[0] = lifeCycle.getDuration(INSTANTIATED);
+                times[1] = lifeCycle.getDuration(SETUP);
+                times[2] = lifeCycle.getDuration(ENABLED);
+                times[3] = lifeCycle.getTotalDuration() - times[0] - times[1] - times[2];
+                durations.put(node, times);
+            }
+        }
+        return durations;
+    }
+
+    private static long weight(long[] times)
+    {
+        return times[0] + times[1] + times[2] + times[3];
+    }
+
+    /**
+     * Sorts the nodes in dependency order
+     */
+    private void sort()
+    {
+        Map<Node, Integer> inDegree = new IdentityHashMap<Node, Integer>();
+        Queue<Node> ready = new LinkedList<Node>();
+        for (Node node : durations.keySet())
+        {
+            int degree = 0;
+            for (Node pre : node.getPredecessors())
+            {
+                if (durations.containsKey(pre))
+                {
+                    degree++;
+                }
+            }
+            inDegree.put(node, degree);
+            if (degree == 0)
+            {
+                ready.add(node);
+            }
+        }
+        while (!ready.isEmpty())
+        {
+            Node node = ready.poll();
+            order.add(node);
+            for (Node succ : node.getSuccessors())
+            {
+                Integer degree = inDegree.get(succ);
+                if (degree != null)
+                {
+                    inDegree.put(succ, degree - 1);
+                    if (degree == 1)
+                    {
+                        ready.add(succ);
+                    }
+                }
+            }
+        }
+    }
+
+    private void computeCriticalPath()
+    {
+        Map<Node, Node> critical = new IdentityHashMap<Node, Node>();
+        Node last = null;
+        for (Node node : order)
+        {
+            long start = 0;
+            for (Node pre : node.getPredecessors())
+            {
+                Long finish = earliestFinish.get(pre);
+                if (finish != null && finish > start)
+                {
+                    start = finish;
+                    critical.put(node, pre);
+                }
+            }
+            long finish = start + weight(durations.get(node));
+            earliestFinish.put(node, finish);
+            if (last == null || finish > total)
+            {
+                total = finish;
+                last = node;
+            }
+        }
+
+        Map<Node, Long> latestFinish = new IdentityHashMap<Node, Long>();
+        for (int i = order.size() - 1; i >= 0; i--)
+        {
+            Node node = order.get(i);
+            long finish = total;
+            for (Node succ : node.getSuccessors())
+            {
+                Long succFinish = latestFinish.get(succ);
+                if (succFinish != null)
+                {
+                    finish = Math.min(finish, succFinish - weight(durations.get(succ)));
+                }
+            }
+            latestFinish.put(node, finish);
+            slack.put(node, finish - earliestFinish.get(node));
+        }
+
+        for (Node node = last; node != null; node = critical.get(node))
+        {
+            criticalPath.add(node);
+        }
+        Collections.reverse(criticalPath);
+    }
+
+    /**
+     * Returns the longest weighted chain of dependencies ordered from the first dependency to the last dependent
+     *
+     * @return the critical path
+     */
+    public List<Node> getCriticalPath()
+    {
+        return Collections.unmodifiableList(criticalPath);
+    }
+
+    /**
+     * Returns the length of the critical path in nanoseconds
+     *
+     * @return the length of the critical path
+     */
+    public long getCriticalPathLength()
+    {
+        return total;
+    }
+
+    /**
+     * Returns the time in nanoseconds given node could be delayed without delaying the startup.
+     * Nodes on the critical path have no slack.
+     *
+     * @param node the node
+     *
+     * @return the slack
+     */
+    public long getSlack(Node node)
+    {
+        Long result = slack.get(node);
+        return result == null ? 0 : result;
+    }
+
+    /**
+     * Returns the time in nanoseconds given node and its implementations took to instantiate, setup and enable
+     *
+     * @param node the node
+     *
+     * @return the duration
+     */
+    public long getDuration(Node node)
+    {
+        long[] times = durations.get(node);
+        return times == null ? 0 : weight(times);
+    }
+
+    /**
+     * Exports the graph in the DOT format. The critical path is highlighted.
+     * Nodes are identified by name and version.
+     *
+     * @return the graph in DOT format
+     */
+    public String toDot()
+    {
+        StringBuilder sb = new StringBuilder("digraph modularity {\n");
+        sb.append("    node [shape=box];\n");
+        for (Node node : order)
+        {
+            long[] times = durations.get(node);
+            // \n in a label is a line break, everything else is escaped
+            sb.append("    ").append(quote(id(node))).append(" [label=\"").append(escape(name(node))).append("\\n")
+                .append(escape(String.valueOf(node.getInformation().getVersion())))
+                .append("\\ninstantiate: ").append(millis(times[0])).append("ms setup: ").append(millis(times[1]))
+                .append("ms enable: ").append(millis(times[2])).append("ms implementations: ").append(millis(times[3]))
+                .append("ms\\nslack: ").append(millis(getSlack(node))).append("ms\"");
+            if (indexOf(node) != -1)
+            {
+                sb.append(", color=red, penwidth=2");
+            }
+            sb.append("];\n");
+        }
+        for (Node node : order)
+        {
+            for (Node succ : node.getSuccessors())
+            {
+                if (durations.containsKey(succ))
+                {
+                    sb.append("    ").append(quote(id(node))).append(" -> ").append(quote(id(succ)));
+                    int index = indexOf(node);
+                    if (index != -1 && index + 1 < criticalPath.size() && criticalPath.get(index + 1) == succ)
+                    {
+                        sb.append(" [color=red, penwidth=2]");
+                    }
+                    sb.append(";\n");
+                }
+            }
+        }
+        return sb.append("}\n").toString();
+    }
+
+    /**
+     * Exports the graph as JSON. Durations are in nanoseconds.
+     * Nodes are referenced by their id made of name and version.
+     *
+     * @return the graph as JSON
+     */
+    public String toJson()
+    {
+        StringBuilder sb = new StringBuilder("{\n  \"criticalPathLength\": ").append(total);
+        sb.append(",\n  \"criticalPath\": [");
+        String splitter = "";
+        for (Node node : criticalPath)
+        {
+            sb.append(splitter).append(quote(id(node)));
+            splitter = ", ";
+        }
+        sb.append("],\n  \"nodes\": [");
+        splitter = "\n";
+        for (Node node : order)
+        {
+            long[] times = durations.get(node);
+            sb.append(splitter).append("    {\"id\": ").append(quote(id(node)));
+            sb.append(", \"name\": ").append(quote(name(node)));
+            sb.append(", \"version\": ").append(quote(String.valueOf(node.getInformation().getVersion())));
+            sb.append(", \"instantiate\": ").append(times[0]);
+            sb.append(", \"setup\": ").append(times[1]);
+            sb.append(", \"enable\": ").append(times[2]);
+            sb.append(", \"implementations\": ").append(times[3]);
+            sb.append(", \"slack\": ").append(getSlack(node));
+            sb.append(", \"dependents\": [");
+            String depSplitter = "";
+            for (Node succ : node.getSuccessors())
+            {
+                if (durations.containsKey(succ))
+                {
+                    sb.append(depSplitter).append(quote(id(succ)));
+                    depSplitter = ", ";
+                }
+            }
+            sb.append("]}");
+            splitter = ",\n";
+        }
+        return sb.append("\n  ]\n}\n").toString();
+    }
+
+    private int indexOf(Node node)
+    {
+        for (int i = 0; i < criticalPath.size(); i++)
+        {
+            if (criticalPath.get(i) == node)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String name(Node node)
+    {
+        return node.getInformation().getIdentifier().name();
+    }
+
+    /**
+     * Returns a unique id of given node. Multiple versions of a module may be loaded at once.
+     */
+    private static String id(Node node)
+    {
+        return node.getInformation().getIdentifier().toString();
+    }
+
+    private static String millis(long nanos)
+    {
+        return String.valueOf(nanos / 1000000d);
+    }
+
+    private static String quote(String string)
+    {
+        return "\"" + escape(string) + "\"";
+    }
+
+    /**
+     * Escapes a string to be put in quotes in JSON or DOT
+     */
+    private static String escape(String string)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < string.length(); i++)
+        {
+            char c = string.charAt(i);
+            switch (c)
+            {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20 || c == 0x7f)
+                    {
+                        sb.append(String.format("\\u%04x", (int)c));
+                    }
+                    else
+                    {
+                        sb.append(c);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -22,16 +22,17 @@
  */
 package de.cubeisland.engine.modularity.core.graph;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * A dependency node containing a set of DependencyInformation
  */
 public class Node
 {
-    private final Set<Node> successors = new HashSet<Node>();
-    private final Set<Node> predecessors = new HashSet<Node>();
+    private final Set<Node> successors = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
+    private final Set<Node> predecessors = Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>());
     private DependencyInformation information;
 
     public Node()
@@ -46,10 +47,37 @@ public class Node
     public void addSuccessor(Node node)
     {
         detectCircularDepdency(this, node);
+        link(node);
+    }
+
+    /**
+     * Adds given node as successor without checking for circular dependencies
+     *
+     * @param node the successor
+     */
+    void link(Node node)
+    {
         successors.add(node);
         node.predecessors.add(this);
     }
 
+    /**
+     * Removes all links of this node
+     */
+    void unlink()
+    {
+        for (Node successor : successors)
+        {
+            successor.predecessors.remove(this);
+        }
+        for (Node predecessor : predecessors)
+        {
+            predecessor.successors.remove(this);
+        }
+        successors.clear();
+        predecessors.clear();
+    }
+
     private void detectCircularDepdency(Node node, Node check)
     {
         if (node.predecessors.contains(check))
@@ -0,0 +1,293 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A version constraint as declared on a dependency.
+ * <p>
+ * Supported syntax:
+ * <ul>
+ *     <li>{@code null}, {@code ""} or {@code *}: any version</li>
+ *     <li>{@code 2.1}: prefers exactly 2.1 but accepts any other version</li>
+ *     <li>{@code =2.1}: exactly 2.1</li>
+ *     <li>{@code >=2.1 <3}: whitespace separated comparators ({@code >, >=, <, <=, =, !=}) which all have to match</li>
+ * </ul>
+ */
+public final class VersionRange
+{
+    private static final VersionRange ANY = new VersionRange("*", null, new ArrayList<Constraint>());
+
+    private final String range;
+    private final String preferred;
+    private final List<Constraint> constraints;
+
+    private VersionRange(String range, String preferred, List<Constraint> constraints)
+    {
+        this.range = range;
+        this.preferred = preferred;
+        this.constraints = constraints;
+    }
+
+    /**
+     * Parses a version range
+     *
+     * @param range the range to parse
+     *
+     * @return the VersionRange
+     */
+    public static VersionRange parse(String range)
+    {
+        if (range == null)
+        {
+            return ANY;
+        }
+        range = range.trim();
+        if (range.isEmpty() || "*".equals(range))
+        {
+            return ANY;
+        }
+        List<Constraint> constraints = new ArrayList<Constraint>();
+        String[] parts = range.split("\\s+");
+        if (parts.length == 1 && Character.isLetterOrDigit(range.charAt(0)))
+        {
+            return new VersionRange(range, range, constraints);
+        }
+        for (String part : parts)
+        {
+            Operator op = Operator.of(part);
+            String version = part.substring(op.symbol.length());
+            if (version.isEmpty())
+            {
+                throw new IllegalArgumentException("Missing version after " + op.symbol + " in range: " + range);
+            }
+            constraints.add(new Constraint(op, version));
+        }
+        return new VersionRange(range, null, constraints);
+    }
+
+    /**
+     * Returns whether given version satisfies this range
+     *
+     * @param version the version to check
+     *
+     * @return true if the version is in this range
+     */
+    public boolean matches(String version)
+    {
+        for (Constraint constraint : constraints)
+        {
+            if (!constraint.matches(version))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the preferred version of a soft requirement or null if there is none
+     *
+     * @return the preferred version
+     */
+    public String getPreferred()
+    {
+        return preferred;
+    }
+
+    /**
+     * Returns whether given version is the preferred version of a soft requirement.
+     * Versions are compared by {@link #compare(String, String)}, so 2.1.0 is preferred for 2.1.
+     *
+     * @param version the version to check
+     *
+     * @return true if the version is preferred
+     */
+    public boolean isPreferred(String version)
+    {
+        return preferred != null && compare(version, preferred) == 0;
+    }
+
+    /**
+     * Compares two versions segment by segment. Numeric segments are compared numerically and are considered
+     * greater than non-numeric segments. Missing segments count as 0.
+     *
+     * @param a the first version
+     * @param b the second version
+     *
+     * @return a negative number, zero or a positive number as a is less than, equal to or greater than b
+     */
+    public static int compare(String a, String b)
+    {
+        if (a == null || b == null)
+        {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        String[] as = a.split("[.\\-_]");
+        String[] bs = b.split("[.\\-_]");
+        for (int i = 0; i < Math.max(as.length, bs.length); i++)
+        {
+            String sa = i < as.length ? as[i] : "0";
+            String sb = i < bs.length ? bs[i] : "0";
+            boolean na = isNumeric(sa);
+            boolean nb = isNumeric(sb);
+            int result;
+            if (na && nb)
+            {
+                result = compareNumeric(sa, sb);
+            }
+            else if (na || nb)
+            {
+                result = na ? 1 : -1;
+            }
+            else
+            {
+                result = sa.compareTo(sb);
+            }
+            if (result != 0)
+            {
+                return result;
+            }
+        }
+        return 0;
+    }
+
+    private static int compareNumeric(String a, String b)
+    {
+        a = stripLeadingZeros(a);
+        b = stripLeadingZeros(b);
+        if (a.length() != b.length())
+        {
+            return a.length() < b.length() ? -1 : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    private static String stripLeadingZeros(String s)
+    {
+        int i = 0;
+        while (i < s.length() - 1 && s.charAt(i) == '0')
+        {
+            i++;
+        }
+        return s.substring(i);
+    }
+
+    private static boolean isNumeric(String s)
+    {
+        if (s.isEmpty())
+        {
+            return false;
+        }
+        for (int i = 0; i < s.length(); i++)
+        {
+            if (!Character.isDigit(s.charAt(i)))
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return this == o || o instanceof VersionRange && range.equals(((VersionRange)o).range);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return range.hashCode();
+    }
+
+    @Override
+    public String toString()
+    {
+        return range;
+    }
+
+    private enum Operator
+    {
+        // Longer symbols first so ">=" is not parsed as ">"
+        GREATER_EQUAL(">="),
+        LESS_EQUAL("<="),
+        NOT_EQUAL("!="),
+        GREATER(">"),
+        LESS("<"),
+        EQUAL("=");
+
+        private final String symbol;
+
+        Operator(String symbol)
+        {
+            this.symbol = symbol;
+        }
+
+        static Operator of(String part)
+        {
+            for (Operator op : values())
+            {
+                if (part.startsWith(op.symbol))
+                {
+                    return op;
+                }
+            }
+            throw new IllegalArgumentException("Unknown version operator in: " + part);
+        }
+    }
+
+    private static final class Constraint
+    {
+        private final Operator op;
+        private final String version;
+
+        private Constraint(Operator op, String version)
+        {
+            this.op = op;
+            this.version = version;
+        }
+
+        boolean matches(String other)
+        {
+            int c = compare(other, version);
+            switch (op)
+            {
+                case GREATER_EQUAL:
+                    return c >= 0;
+                case LESS_EQUAL:
+                    return c <= 0;
+                case NOT_EQUAL:
+                    return c != 0;
+                case GREATER:
+                    return c > 0;
+                case LESS:
+                    return c < 0;
+                default:
+                    return c == 0;
+            }
+        }
+    }
+}
@@ -55,4 +55,10 @@ public interface ModuleMetadata extends DependencyInformation
      * @return the modules to load before
      */
     Set<Dependency> loadAfter();
+
+    /**
+     * Returns whether the module is only activated when first used
+     * @return true if lazy
+     */
+    boolean isLazy();
 }
@@ -32,4 +32,11 @@ public interface ServiceImplementationMetadata extends DependencyInformation
      * @return the name of the implemented Service
      */
     String getActualClass();
+
+    /**
+     * Returns the priority of this implementation. Implementations with higher priority are preferred
+     *
+     * @return the priority
+     */
+    int getPriority();
 }
@@ -25,10 +25,15 @@ package de.cubeisland.engine.modularity.core.service;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public abstract class BasicInvocationHandler implements InvocationHandler
 {
     private final ServiceProvider<?> service;
+    private volatile Object current;
+    private volatile boolean observed;
+    private volatile InvocationMetrics metrics;
+    private final AtomicBoolean accessed = new AtomicBoolean();
 
     public BasicInvocationHandler(ServiceProvider<?> service)
     {
@@ -38,21 +43,167 @@ public abstract class BasicInvocationHandler implements InvocationHandler
     @Override
     public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
     {
-        Object impl = getImplementation();
-        if (impl == null)
+        Object impl = getCurrent();
+        if (!observed)
         {
-            // TODO custom exception
-            throw new IllegalStateException("The service <" + this.service.getInterface().getName() + "> was invoked, but has no implementations!");
+            try
+            {
+                return method.invoke(impl, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
         }
+        long start = System.nanoTime();
+        Throwable failure = null;
         try
         {
             return method.invoke(impl, args);
         }
         catch (InvocationTargetException e)
         {
-            throw e.getCause();
+            failure = e.getCause();
+            throw failure;
+        }
+        finally
+        {
+            record(impl, method, System.nanoTime() - start, failure);
+        }
+    }
+
+    /**
+     * Records an observed call
+     *
+     * @param impl    the implementation called
+     * @param method  the method called
+     * @param nanos   the duration of the call
+     * @param failure the Throwable thrown by the call or null
+     */
+    public final void record(Object impl, Method method, long nanos, Throwable failure)
+    {
+        InvocationMetrics metrics = this.metrics;
+        if (metrics != null)
+        {
+            metrics.record(method, nanos, failure != null);
+        }
+        completed(impl, method, nanos, failure);
+    }
+
+    /**
+     * Returns whether calls have to go through {@link #invoke(Object, Method, Object[])} to be observed.
+     * Proxies calling the implementation directly have to check this on every call.
+     *
+     * @return true if calls are observed
+     */
+    public final boolean isObserved()
+    {
+        return observed;
+    }
+
+    /**
+     * Observes calls when recording metrics or when {@link #observesCalls()}
+     */
+    protected final void updateObserved()
+    {
+        this.observed = metrics != null || observesCalls();
+    }
+
+    protected boolean observesCalls()
+    {
+        return false;
+    }
+
+    /**
+     * Turns recording metrics on or off
+     *
+     * @param enabled whether to record metrics
+     */
+    public final synchronized void setMetricsEnabled(boolean enabled)
+    {
+        if (enabled != (metrics != null))
+        {
+            metrics = enabled ? new InvocationMetrics() : null;
+            updateObserved();
         }
     }
 
+    /**
+     * Returns the recorded metrics
+     *
+     * @return the metrics or null if not recorded
+     */
+    public final InvocationMetrics getMetrics()
+    {
+        return metrics;
+    }
+
+    /**
+     * Called after an observed call completed
+     *
+     * @param impl    the implementation called
+     * @param method  the method called
+     * @param nanos   the duration of the call
+     * @param failure the Throwable thrown by the call or null
+     */
+    protected void completed(Object impl, Method method, long nanos, Throwable failure)
+    {
+    }
+
+    /**
+     * Returns the implementation to forward calls to
+     *
+     * @return the implementation
+     *
+     * @throws IllegalStateException if the service has no implementation
+     */
+    public final Object getCurrent()
+    {
+        if (!accessed.get())
+        {
+            accessed.set(true); // Written only once per eviction sweep
+        }
+        Object impl = current;
+        if (impl != null)
+        {
+            return impl;
+        }
+        impl = getImplementation();
+        if (impl == null)
+        {
+            // TODO custom exception
+            throw new IllegalStateException("The service <" + this.service.getInterface().getName() + "> was invoked, but has no implementations!");
+        }
+        return impl;
+    }
+
     public abstract Object getImplementation();
+
+    /**
+     * Returns whether the proxy was called since the last time this was checked
+     *
+     * @return true if called
+     */
+    public final boolean pollAccessed()
+    {
+        return accessed.getAndSet(false); // An access between reading and clearing would be lost otherwise
+    }
+
+    /**
+     * Sets the implementation returned by {@link #getCurrent()} without looking it up
+     *
+     * @param impl the implementation or null to look it up again
+     */
+    protected final void setCurrent(Object impl)
+    {
+        this.current = impl;
+    }
+
+    /**
+     * Called when the implementations changed
+     */
+    public synchronized void update()
+    {
+        setCurrent(null);
+    }
 }
@@ -0,0 +1,68 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The metrics of all methods of a service
+ */
+public class InvocationMetrics
+{
+    private final ConcurrentMap<Method, MethodMetrics> methods = new ConcurrentHashMap<Method, MethodMetrics>();
+
+    public void record(Method method, long nanos, boolean failed)
+    {
+        MethodMetrics metrics = methods.get(method);
+        if (metrics == null)
+        {
+            metrics = new MethodMetrics();
+            MethodMetrics existing = methods.putIfAbsent(method, metrics);
+            if (existing != null)
+            {
+                metrics = existing;
+            }
+        }
+        metrics.record(nanos, failed);
+    }
+
+    /**
+     * Returns a snapshot of the metrics of every method called so far
+     *
+     * @return the snapshots by method
+     */
+    public Map<Method, MethodMetrics.Snapshot> snapshot()
+    {
+        Map<Method, MethodMetrics.Snapshot> snapshot = new HashMap<Method, MethodMetrics.Snapshot>();
+        for (Entry<Method, MethodMetrics> entry : methods.entrySet())
+        {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+}
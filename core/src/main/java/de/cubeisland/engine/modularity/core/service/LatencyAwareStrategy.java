@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Prefers the implementation with the lowest recently observed latency.
+ * <p>
+ * Latencies are tracked as an exponentially weighted moving average. Failed calls count as ten times as slow.
+ * Every 32nd call goes round-robin so the latencies of the other implementations stay up to date.
+ */
+public class LatencyAwareStrategy implements SelectionStrategy
+{
+    private static final int EXPLORE_MASK = 31;
+    private static final int FAILURE_PENALTY = 10;
+
+    private final AtomicInteger calls = new AtomicInteger();
+    private volatile Map<Object, AtomicLong> latencies = new IdentityHashMap<Object, AtomicLong>();
+
+    @Override
+    public Object select(Object[] implementations)
+    {
+        int call = calls.getAndIncrement() & Integer.MAX_VALUE;
+        if ((call & EXPLORE_MASK) == 0)
+        {
+            return implementations[(call / (EXPLORE_MASK + 1)) % implementations.length];
+        }
+        Map<Object, AtomicLong> latencies = this.latencies;
+        Object fastest = implementations[0];
+        long lowest = Long.MAX_VALUE;
+        for (Object implementation : implementations)
+        {
+            AtomicLong latency = latencies.get(implementation);
+            long value = latency == null ? 0 : latency.get(); // Try implementations without samples first
+            if (value < lowest)
+            {
+                lowest = value;
+                fastest = implementation;
+            }
+        }
+        return fastest;
+    }
+
+    @Override
+    public boolean isFixed()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isObserving()
+    {
+        return true;
+    }
+
+    @Override
+    public synchronized void update(Object[] implementations)
+    {
+        // Copy on write to keep select lock free. Dropping disabled implementations keeps them collectable
+        Map<Object, AtomicLong> updated = new IdentityHashMap<Object, AtomicLong>();
+        for (Object implementation : implementations)
+        {
+            AtomicLong latency = latencies.get(implementation);
+            updated.put(implementation, latency == null ? new AtomicLong() : latency);
+        }
+        latencies = updated;
+    }
+
+    @Override
+    public void completed(Object implementation, long nanos, boolean failed)
+    {
+        AtomicLong latency = latencies.get(implementation);
+        if (latency == null)
+        {
+            return;
+        }
+        long sample = failed ? nanos * FAILURE_PENALTY : nanos;
+        long current;
+        long next;
+        do
+        {
+            current = latency.get();
+            next = current == 0 ? sample : current + ((sample - current) >> 3);
+        }
+        while (!latency.compareAndSet(current, next));
+    }
+
+    /**
+     * Returns the average latency in nanoseconds observed for given implementation
+     *
+     * @param implementation the implementation
+     *
+     * @return the latency or 0 if not observed yet
+     */
+    public long getLatency(Object implementation)
+    {
+        AtomicLong latency = latencies.get(implementation);
+        return latency == null ? 0 : latency.get();
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Call count, error count and latency histogram of a single service method.
+ * <p>
+ * Calls are recorded into one of several stripes chosen by the calling thread, so threads on different cores rarely
+ * share a counter. The histogram has a fixed number of log-linear buckets with 8 buckets per power of two.
+ */
+public class MethodMetrics
+{
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+    private static final int ERRORS = 0;
+    private static final int SUM = 1;
+    private static final int FIRST_BUCKET = 2;
+    private static final int STRIPES = stripes();
+
+    private final AtomicLongArray[] stripes = new AtomicLongArray[STRIPES];
+
+    public MethodMetrics()
+    {
+        for (int i = 0; i < STRIPES; i++)
+        {
+            stripes[i] = new AtomicLongArray(FIRST_BUCKET + BUCKETS);
+        }
+    }
+
+    private static int stripes()
+    {
+        int stripes = 1;
+        while (stripes < Runtime.getRuntime().availableProcessors() && stripes < 16)
+        {
+            stripes <<= 1;
+        }
+        return stripes;
+    }
+
+    /**
+     * Records a call
+     *
+     * @param nanos  the duration of the call
+     * @param failed whether the call threw
+     */
+    public void record(long nanos, boolean failed)
+    {
+        AtomicLongArray stripe = stripes[(int)Thread.currentThread().getId() & (STRIPES - 1)];
+        stripe.incrementAndGet(FIRST_BUCKET + bucket(nanos));
+        stripe.addAndGet(SUM, nanos);
+        if (failed)
+        {
+            stripe.incrementAndGet(ERRORS);
+        }
+    }
+
+    static int bucket(long value)
+    {
+        if (value < SUB_BUCKETS)
+        {
+            return value < 0 ? 0 : (int)value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int)((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    static long lowerBound(int bucket)
+    {
+        if (bucket < SUB_BUCKETS)
+        {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long)(SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /**
+     * Sums up all stripes. Calls recorded concurrently may be only partially included.
+     *
+     * @return the snapshot
+     */
+    public Snapshot snapshot()
+    {
+        long errors = 0;
+        long sum = 0;
+        long[] buckets = new long[BUCKETS];
+        for (AtomicLongArray stripe : stripes)
+        {
+            errors += stripe.get(ERRORS);
+            sum += stripe.get(SUM);
+            for (int i = 0; i < BUCKETS; i++)
+            {
+                buckets[i] += stripe.get(FIRST_BUCKET + i);
+            }
+        }
+        return new Snapshot(errors, sum, buckets);
+    }
+
+    public static final class Snapshot
+    {
+        private final long calls;
+        private final long errors;
+        private final long totalNanos;
+        private final long[] buckets;
+
+        private Snapshot(long errors, long totalNanos, long[] buckets)
+        {
+            long calls = 0;
+            for (long count : buckets)
+            {
+                calls += count;
+            }
+            this.calls = calls;
+            this.errors = errors;
+            this.totalNanos = totalNanos;
+            this.buckets = buckets;
+        }
+
+        public long getCalls()
+        {
+            return calls;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public long getTotalNanos()
+        {
+            return totalNanos;
+        }
+
+        public long getMeanNanos()
+        {
+            return calls == 0 ? 0 : totalNanos / calls;
+        }
+
+        /**
+         * Returns the latency below which given percentage of calls completed.
+         * The value is the upper bound of the histogram bucket, accurate to 12.5%.
+         *
+         * @param percentile the percentile between 0 and 100
+         *
+         * @return the latency in nanoseconds
+         */
+        public long getPercentile(double percentile)
+        {
+            if (calls == 0)
+            {
+                return 0;
+            }
+            long rank = Math.max(1, (long)Math.ceil(calls * percentile / 100));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++)
+            {
+                seen += buckets[i];
+                if (seen >= rank)
+                {
+                    return i + 1 < BUCKETS ? lowerBound(i + 1) - 1 : Long.MAX_VALUE;
+                }
+            }
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public String toString()
+        {
+            return "calls=" + calls + " errors=" + errors + " mean=" + getMeanNanos() + "ns p50=" + getPercentile(50)
+                + "ns p99=" + getPercentile(99) + "ns";
+        }
+    }
+}
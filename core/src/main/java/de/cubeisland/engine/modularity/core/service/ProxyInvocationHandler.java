@@ -37,6 +37,6 @@ public class ProxyInvocationHandler extends BasicInvocationHandler
     @Override
     public Object getImplementation()
     {
-        return proxy.get();
+        return proxy.get(); // A Provider may hand out a new instance every time
     }
 }
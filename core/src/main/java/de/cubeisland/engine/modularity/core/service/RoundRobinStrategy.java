@@ -0,0 +1,114 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Spreads calls over all enabled implementations, optionally weighted by their class name
+ */
+public class RoundRobinStrategy implements SelectionStrategy
+{
+    private final Map<String, Integer> weights;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public RoundRobinStrategy()
+    {
+        this(Collections.<String, Integer>emptyMap());
+    }
+
+    /**
+     * @param weights the weights of implementations by class name. Missing implementations weigh 1
+     *
+     * @throws IllegalArgumentException if a weight is not positive
+     */
+    public RoundRobinStrategy(Map<String, Integer> weights)
+    {
+        for (Entry<String, Integer> entry : weights.entrySet())
+        {
+            if (entry.getValue() == null || entry.getValue() <= 0)
+            {
+                throw new IllegalArgumentException("The weight of " + entry.getKey() + " must be positive but was "
+                                                       + entry.getValue());
+            }
+        }
+        this.weights = Collections.unmodifiableMap(new HashMap<String, Integer>(weights));
+    }
+
+    @Override
+    public Object select(Object[] implementations)
+    {
+        int call = next.getAndIncrement() & Integer.MAX_VALUE;
+        if (weights.isEmpty())
+        {
+            return implementations[call % implementations.length];
+        }
+        int total = 0;
+        for (Object implementation : implementations)
+        {
+            total += weightOf(implementation);
+        }
+        int position = call % total;
+        for (Object implementation : implementations)
+        {
+            position -= weightOf(implementation);
+            if (position < 0)
+            {
+                return implementation;
+            }
+        }
+        return implementations[0];
+    }
+
+    private int weightOf(Object implementation)
+    {
+        Integer weight = weights.get(implementation.getClass().getName());
+        return weight == null ? 1 : weight;
+    }
+
+    @Override
+    public boolean isFixed()
+    {
+        return false;
+    }
+
+    @Override
+    public boolean isObserving()
+    {
+        return false;
+    }
+
+    @Override
+    public void update(Object[] implementations)
+    {
+    }
+
+    @Override
+    public void completed(Object implementation, long nanos, boolean failed)
+    {
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+/**
+ * Selects the implementation a service call is forwarded to
+ */
+public interface SelectionStrategy
+{
+    /**
+     * Selects the implementation for a single call
+     *
+     * @param implementations the enabled implementations by descending priority, never empty
+     *
+     * @return the selected implementation
+     */
+    Object select(Object[] implementations);
+
+    /**
+     * Returns whether {@link #select(Object[])} always returns the first implementation.
+     * The selected implementation is then cached until the implementations change.
+     *
+     * @return true if the first implementation is always selected
+     */
+    boolean isFixed();
+
+    /**
+     * Returns whether {@link #completed(Object, long, boolean)} has to be called after each call
+     *
+     * @return true if calls are observed
+     */
+    boolean isObserving();
+
+    /**
+     * Called when the enabled implementations changed
+     *
+     * @param implementations the enabled implementations by descending priority
+     */
+    void update(Object[] implementations);
+
+    /**
+     * Called after a call completed if this strategy is observing
+     *
+     * @param implementation the implementation called
+     * @param nanos          the duration of the call
+     * @param failed         whether the call threw
+     */
+    void completed(Object implementation, long nanos, boolean failed);
+}
@@ -39,12 +39,19 @@
  */
 package de.cubeisland.engine.modularity.core.service;
 
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import de.cubeisland.engine.modularity.core.LifeCycle;
 
+import static de.cubeisland.engine.modularity.core.LifeCycle.State.ENABLED;
+
 class ServiceInvocationHandler extends BasicInvocationHandler
 {
     private final Queue<LifeCycle> implementations;
+    private volatile SelectionStrategy strategy = new PriorityStrategy();
+    private volatile Object[] enabled = new Object[0];
 
     public ServiceInvocationHandler(ServiceProvider<?> service, Queue<LifeCycle> implementations)
     {
@@ -55,11 +62,56 @@ class ServiceInvocationHandler extends BasicInvocationHandler
     @Override
     public Object getImplementation()
     {
-        final LifeCycle impl = this.implementations.peek();
+        Object[] enabled = this.enabled;
+        if (enabled.length != 0)
+        {
+            return strategy.select(enabled);
+        }
+        final LifeCycle impl = this.implementations.peek(); // Enables the implementation with the highest priority
         if (impl == null)
         {
             return null;
         }
         return impl.getProvided(null);
     }
+
+    /**
+     * Collects the enabled implementations and caches the selected one if the strategy is fixed
+     */
+    @Override
+    public synchronized void update()
+    {
+        List<Object> list = new ArrayList<Object>();
+        for (LifeCycle impl : implementations)
+        {
+            Object provided = impl.isIn(ENABLED) ? impl.getCachedProvided() : null;
+            if (provided != null)
+            {
+                list.add(provided);
+            }
+        }
+        Object[] enabled = list.toArray();
+        strategy.update(enabled);
+        this.enabled = enabled;
+        setCurrent(strategy.isFixed() && enabled.length != 0 ? enabled[0] : null);
+    }
+
+    public synchronized void setStrategy(SelectionStrategy strategy)
+    {
+        this.strategy = strategy == null ? new PriorityStrategy() : strategy;
+        updateObserved();
+        update();
+    }
+
+    @Override
+    protected boolean observesCalls()
+    {
+        return strategy.isObserving();
+    }
+
+    @Override
+    protected void completed(Object impl, Method method, long nanos, Throwable failure)
+    {
+        strategy.completed(impl, nanos, failure != null);
+    }
 }
@@ -22,7 +22,6 @@
  */
 package de.cubeisland.engine.modularity.core.service;
 
-import java.lang.reflect.InvocationHandler;
 import java.util.Queue;
 import javax.inject.Provider;
 import de.cubeisland.engine.modularity.core.LifeCycle;
@@ -33,21 +32,41 @@ public class ServiceProvider<T> implements Provider<T>
 {
     private Class clazz;
     private final T proxy;
-    private final InvocationHandler invocationHandler;
+    private final BasicInvocationHandler invocationHandler;
 
-    @SuppressWarnings("unchecked")
     public ServiceProvider(Class clazz, Queue<LifeCycle> impls)
+    {
+        this(clazz, impls, null);
+    }
+
+    public ServiceProvider(Class clazz, Queue<LifeCycle> impls, ProxyFactory factory)
     {
         this.clazz = clazz;
         this.invocationHandler = new ServiceInvocationHandler(this, impls);
-        this.proxy = (T)newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, this.invocationHandler);
+        this.proxy = newProxy(factory);
     }
 
     public ServiceProvider(Class clazz, Provider<T> proxy)
+    {
+        this(clazz, proxy, null);
+    }
+
+    public ServiceProvider(Class clazz, Provider<T> proxy, ProxyFactory factory)
     {
         this.clazz = clazz;
         this.invocationHandler = new ProxyInvocationHandler(this, proxy);
-        this.proxy = (T)newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, this.invocationHandler);
+        this.proxy = newProxy(factory);
+    }
+
+    @SuppressWarnings("unchecked")
+    private T newProxy(ProxyFactory factory)
+    {
+        Object proxy = factory == null ? null : factory.newProxy(clazz, invocationHandler);
+        if (proxy == null)
+        {
+            proxy = newProxyInstance(clazz.getClassLoader(), new Class[]{clazz}, invocationHandler);
+        }
+        return (T)proxy;
     }
 
     @Override
@@ -56,6 +75,57 @@ public class ServiceProvider<T> implements Provider<T>
         return proxy;
     }
 
+    /**
+     * Updates the proxy after implementations were enabled, disabled or reordered
+     */
+    public void update()
+    {
+        invocationHandler.update();
+    }
+
+    /**
+     * Sets the strategy selecting between the implementations of this service
+     *
+     * @param strategy the strategy or null to select by priority
+     */
+    public void setStrategy(SelectionStrategy strategy)
+    {
+        if (invocationHandler instanceof ServiceInvocationHandler)
+        {
+            ((ServiceInvocationHandler)invocationHandler).setStrategy(strategy);
+        }
+    }
+
+    /**
+     * Turns recording invocation metrics for this service on or off
+     *
+     * @param enabled whether to record metrics
+     */
+    public void setMetricsEnabled(boolean enabled)
+    {
+        invocationHandler.setMetricsEnabled(enabled);
+    }
+
+    /**
+     * Returns the invocation metrics of this service
+     *
+     * @return the metrics or null if not recorded
+     */
+    public InvocationMetrics getMetrics()
+    {
+        return invocationHandler.getMetrics();
+    }
+
+    /**
+     * Returns whether the proxy was called since the last time this was checked
+     *
+     * @return true if called
+     */
+    public boolean pollAccessed()
+    {
+        return invocationHandler.pollAccessed();
+    }
+
     public Class getInterface()
     {
         return clazz;
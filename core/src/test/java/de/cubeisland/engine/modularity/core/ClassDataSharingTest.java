@@ -0,0 +1,116 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+public class ClassDataSharingTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void testArchiveDigest() throws Exception
+    {
+        File a = writeJar("a.jar", "A", 1);
+        File b = writeJar("b.jar", "B", 2);
+        File dir = temp.getRoot();
+
+        File archive = ClassDataSharing.getArchive(dir, Arrays.asList(a, b));
+        assertEquals(archive, ClassDataSharing.getArchive(dir, Arrays.asList(a, b)));
+        assertEquals(archive, ClassDataSharing.getArchive(dir, Arrays.asList(b, a))); // independent of the order
+        assertFalse(archive.equals(ClassDataSharing.getArchive(dir, Collections.singletonList(a))));
+
+        writeJar("b.jar", "B", 3);
+        assertFalse(archive.equals(ClassDataSharing.getArchive(dir, Arrays.asList(a, b)))); // changed classes
+    }
+
+    @Test
+    public void testArguments() throws Exception
+    {
+        List<File> jars = Collections.singletonList(writeJar("a.jar", "A", 1));
+        File dir = temp.newFolder("archives");
+        assertTrue(ClassDataSharing.getArguments(dir, jars, 12).isEmpty());
+
+        File stale = new File(dir, "modules-1.jsa");
+        assertTrue(stale.createNewFile());
+        File archive = ClassDataSharing.getArchive(dir, jars);
+        assertEquals(Arrays.asList("-Xshare:auto", "-XX:ArchiveClassesAtExit=" + archive.getAbsolutePath()),
+                     ClassDataSharing.getArguments(dir, jars, 13));
+        assertFalse(stale.exists());
+
+        assertTrue(archive.createNewFile()); // dumped by the JVM
+        assertEquals(Arrays.asList("-Xshare:auto", "-XX:SharedArchiveFile=" + archive.getAbsolutePath()),
+                     ClassDataSharing.getArguments(dir, jars, 17));
+    }
+
+    @Test
+    public void testJavaVersion() throws Exception
+    {
+        assertEquals(8, ClassDataSharing.parseVersion("1.8.0_292"));
+        assertEquals(13, ClassDataSharing.parseVersion("13"));
+        assertEquals(17, ClassDataSharing.parseVersion("17.0.9"));
+
+        File home = temp.newFolder("jdk");
+        assertEquals(0, ClassDataSharing.getJavaVersion(home));
+        FileOutputStream out = new FileOutputStream(new File(home, "release"));
+        try
+        {
+            out.write("IMPLEMENTOR=\"Someone\"\nJAVA_VERSION=\"11.0.2\"\n".getBytes("UTF-8"));
+        }
+        finally
+        {
+            out.close();
+        }
+        assertEquals(11, ClassDataSharing.getJavaVersion(home));
+    }
+
+    private File writeJar(String name, String className, int content) throws IOException
+    {
+        File jar = new File(temp.getRoot(), name);
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try
+        {
+            out.putNextEntry(new JarEntry("test/" + className + ".class"));
+            out.write(new byte[]{(byte)0xCA, (byte)0xFE, (byte)0xBA, (byte)0xBE, (byte)content});
+            out.closeEntry();
+        }
+        finally
+        {
+            out.close();
+        }
+        return jar;
+    }
+}
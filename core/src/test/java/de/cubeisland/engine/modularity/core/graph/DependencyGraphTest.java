@@ -0,0 +1,140 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DependencyGraphTest
+{
+    @Test
+    public void testResolveRange()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        graph.addNode(new TestInformation("lib", "1.0"));
+        Node v2 = graph.addNode(new TestInformation("lib", "2.0"));
+        Node v3 = graph.addNode(new TestInformation("lib", "3.0"));
+
+        assertSame(v3, graph.resolve(new BasicDependency("lib", null)));
+        assertSame(v2, graph.resolve(new BasicDependency("lib", ">=1.5 <3")));
+        assertSame(v2, graph.resolve(new BasicDependency("lib", "2"))); // preferred over the highest version
+        assertNull(graph.resolve(new BasicDependency("lib", ">3")));
+    }
+
+    @Test
+    public void testResolutionInvalidated()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        Node v1 = graph.addNode(new TestInformation("lib", "1.0"));
+        Dependency newest = new BasicDependency("lib", ">=1");
+        Dependency missing = new BasicDependency("lib", ">=2");
+        assertSame(v1, graph.resolve(newest));
+        assertNull(graph.resolve(missing));
+
+        Node v2 = graph.addNode(new TestInformation("lib", "2.0"));
+        assertSame(v2, graph.resolve(newest));
+        assertSame(v2, graph.resolve(missing));
+    }
+
+    @Test
+    public void testRemoveVersion()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        Node v1 = graph.addNode(new TestInformation("lib", "1.0"));
+        Node v2 = graph.addNode(new TestInformation("lib", "2.0"));
+        Dependency newest = new BasicDependency("lib", ">=1");
+        assertSame(v2, graph.resolve(newest));
+
+        graph.removeAll(Collections.singleton(v2));
+        assertSame(v1, graph.resolve(newest));
+        assertNull(graph.resolve(new BasicDependency("lib", ">=2")));
+    }
+
+    @Test
+    public void testAddBatch()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        Node app = graph.addNode(new TestInformation("app", "1.0", new BasicDependency("lib", ">=1"), new BasicDependency("api", null)));
+        assertFalse(graph.getUnresolved().isEmpty());
+
+        // The dependent comes first in the batch
+        List<Node> added = graph.addAll(Arrays.asList(new TestInformation("lib", "1.0", new BasicDependency("api", null)),
+                                                      new TestInformation("api", "1.0")));
+        Node lib = added.get(0);
+        Node api = added.get(1);
+        assertTrue(graph.getUnresolved().isEmpty());
+        assertTrue(api.getSuccessors().contains(lib));
+        assertTrue(lib.getSuccessors().contains(app));
+        assertTrue(graph.getRoot().getSuccessors().contains(api));
+        assertEquals(Arrays.asList(lib, app), graph.getDependents(api));
+    }
+
+    @Test
+    public void testRejectCycle()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        Node app = graph.addNode(new TestInformation("app", "1.0", new BasicDependency("lib", null)));
+        Node api = graph.addNode(new TestInformation("api", "1.0"));
+        try
+        {
+            graph.addAll(Arrays.asList(new TestInformation("lib", "1.0", new BasicDependency("cycle", null)),
+                                       new TestInformation("cycle", "1.0", new BasicDependency("lib", null),
+                                                           new BasicDependency("api", null))));
+            fail("lib and cycle depend on each other");
+        }
+        catch (IllegalArgumentException expected)
+        {
+        }
+
+        // Nothing of the batch is left
+        assertEquals(2, graph.getNodes().size());
+        assertNull(graph.resolve(new BasicDependency("lib", null)));
+        assertNull(graph.resolve(new BasicDependency("cycle", null)));
+        assertEquals(Collections.singletonList(app), graph.getUnresolved().get(new BasicDependency("lib", null)));
+        assertTrue(api.getSuccessors().isEmpty());
+        assertTrue(app.getPredecessors().isEmpty());
+
+        Node lib = graph.addNode(new TestInformation("lib", "1.0"));
+        assertTrue(lib.getSuccessors().contains(app));
+    }
+
+    @Test
+    public void testLongChain()
+    {
+        DependencyGraph graph = new DependencyGraph();
+        List<TestInformation> chain = new ArrayList<TestInformation>();
+        chain.add(new TestInformation("node0", "1.0"));
+        for (int i = 1; i < 20000; i++)
+        {
+            chain.add(new TestInformation("node" + i, "1.0", new BasicDependency("node" + (i - 1), null)));
+        }
+        List<Node> added = graph.addAll(chain);
+        assertEquals(20000, graph.getNodes().size());
+        assertTrue(added.get(0).getSuccessors().contains(added.get(1)));
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import de.cubeisland.engine.modularity.core.BasicModularity;
+import de.cubeisland.engine.modularity.core.Modularity;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class GraphReportTest
+{
+    @Test
+    public void testCriticalPath()
+    {
+        //   a(10) -> b(30) -> d(20)
+        //   a(10) -> c(5)  -> d(20)
+        DependencyGraph graph = new DependencyGraph();
+        Node a = graph.addNode(new TestInformation("a", "1.0"));
+        Node b = graph.addNode(new TestInformation("b", "1.0", new BasicDependency("a", null)));
+        Node c = graph.addNode(new TestInformation("c", "1.0", new BasicDependency("a", null)));
+        Node d = graph.addNode(new TestInformation("d", "1.0", new BasicDependency("b", null),
+                                                   new BasicDependency("c", null)));
+        Map<Node, long[]> durations = new IdentityHashMap<Node, long[]>();
+        durations.put(a, new long[]{4, 3, 2, 1});
+        durations.put(b, new long[]{0, 0, 30, 0});
+        durations.put(c, new long[]{5, 0, 0, 0});
+        durations.put(d, new long[]{0, 10, 0, 10});
+
+        GraphReport report = new GraphReport(graph.getNodes(), durations);
+        assertEquals(Arrays.asList(a, b, d), report.getCriticalPath());
+        assertEquals(60, report.getCriticalPathLength());
+        assertEquals(10, report.getDuration(a));
+        assertEquals(0, report.getSlack(a));
+        assertEquals(0, report.getSlack(b));
+        assertEquals(25, report.getSlack(c)); // may finish at 40 instead of 15
+        assertEquals(0, report.getSlack(d));
+
+        String json = report.toJson();
+        assertTrue(json.contains("\"criticalPathLength\": 60"));
+        assertTrue(json.contains("\"criticalPath\": [\"a:1.0\", \"b:1.0\", \"d:1.0\"]"));
+        assertTrue(json.contains("{\"id\": \"c:1.0\", \"name\": \"c\", \"version\": \"1.0\", \"instantiate\": 5, "
+                                     + "\"setup\": 0, \"enable\": 0, \"implementations\": 0, \"slack\": 25, "
+                                     + "\"dependents\": [\"d:1.0\"]}"));
+        String dot = report.toDot();
+        assertTrue(dot.contains("\"b:1.0\" -> \"d:1.0\" [color=red, penwidth=2];"));
+        assertTrue(dot.contains("\"c:1.0\" -> \"d:1.0\";"));
+    }
+
+    @Test
+    public void testJson()
+    {
+        Modularity modularity = new BasicModularity();
+        DependencyGraph graph = modularity.getGraph();
+        graph.addNode(new TestInformation("odd \"name\" \\ with\ttabs\u0001", "1.0"));
+        graph.addNode(new TestInformation("lib", "1.0"));
+        graph.addNode(new TestInformation("lib", "2.0"));
+
+        String json = new GraphReport(modularity).toJson();
+        assertTrue(json.contains("\"name\": \"odd \\\"name\\\" \\\\ with\\ttabs\\u0001\""));
+        assertTrue(json.contains("\"id\": \"lib:1.0\""));
+        assertTrue(json.contains("\"id\": \"lib:2.0\"")); // Both versions are separate nodes
+        for (char c : json.toCharArray())
+        {
+            assertTrue("unescaped control character", c >= 0x20 || c == '\n');
+        }
+        assertTrue(modularity.getLifecycles().isEmpty()); // Reporting does not create LifeCycles
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import de.cubeisland.engine.modularity.core.InjectionPoint;
+import de.cubeisland.engine.modularity.core.ModularityClassLoader;
+
+/**
+ * DependencyInformation for graph tests
+ */
+class TestInformation implements DependencyInformation
+{
+    private final Dependency identifier;
+    private final Set<Dependency> required = new HashSet<Dependency>();
+
+    TestInformation(String name, String version, Dependency... required)
+    {
+        this.identifier = new BasicDependency(name, version);
+        Collections.addAll(this.required, required);
+    }
+
+    @Override
+    public Dependency getIdentifier()
+    {
+        return identifier;
+    }
+
+    @Override
+    public String getClassName()
+    {
+        return identifier.name();
+    }
+
+    @Override
+    public String getActualClass()
+    {
+        return identifier.name();
+    }
+
+    @Override
+    public String getSourceVersion()
+    {
+        return null;
+    }
+
+    @Override
+    public String getVersion()
+    {
+        return identifier.version();
+    }
+
+    @Override
+    public Set<Dependency> requiredDependencies()
+    {
+        return required;
+    }
+
+    @Override
+    public Set<Dependency> optionalDependencies()
+    {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Map<String, InjectionPoint> injectionPoints()
+    {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public ModularityClassLoader getClassLoader()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.graph;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class VersionRangeTest
+{
+    @Test
+    public void testAny()
+    {
+        assertTrue(VersionRange.parse(null).matches("1.0"));
+        assertTrue(VersionRange.parse("").matches("1.0"));
+        assertTrue(VersionRange.parse(" * ").matches("unknown"));
+        assertNull(VersionRange.parse("*").getPreferred());
+    }
+
+    @Test
+    public void testSoftRequirement()
+    {
+        VersionRange range = VersionRange.parse("2.1");
+        assertEquals("2.1", range.getPreferred());
+        assertTrue(range.matches("1.0"));
+        assertTrue(range.matches("3"));
+        assertTrue(range.isPreferred("2.1"));
+        assertTrue(range.isPreferred("2.1.0"));
+        assertFalse(range.isPreferred("2.10"));
+    }
+
+    @Test
+    public void testConstraints()
+    {
+        VersionRange range = VersionRange.parse(">=2.1 <3");
+        assertNull(range.getPreferred());
+        assertFalse(range.matches("2.0.9"));
+        assertTrue(range.matches("2.1"));
+        assertTrue(range.matches("2.10"));
+        assertFalse(range.matches("3.0"));
+
+        assertTrue(VersionRange.parse("=2.1").matches("2.1.0"));
+        assertFalse(VersionRange.parse("=2.1").matches("2.2"));
+        assertFalse(VersionRange.parse("!=2").matches("2.0"));
+        assertTrue(VersionRange.parse(">1 <=1.5").matches("1.5"));
+        assertFalse(VersionRange.parse(">1 <=1.5").matches("1"));
+    }
+
+    @Test
+    public void testCompare()
+    {
+        assertTrue(VersionRange.compare("1.10", "1.9") > 0);
+        assertEquals(0, VersionRange.compare("1.0", "1"));
+        assertEquals(0, VersionRange.compare("01.2", "1.2"));
+        assertTrue(VersionRange.compare("1.0", "1.0-beta") > 0); // numeric segments are greater
+        assertTrue(VersionRange.compare(null, "1") < 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingVersion()
+    {
+        VersionRange.parse(">= 2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownOperator()
+    {
+        VersionRange.parse("~2");
+    }
+}
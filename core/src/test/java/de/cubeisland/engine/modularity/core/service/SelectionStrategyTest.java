@@ -0,0 +1,128 @@
+/*
+ * The MIT License
+ * Copyright © 2014 Cube Island
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package de.cubeisland.engine.modularity.core.service;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SelectionStrategyTest
+{
+    private static final Object FIRST = "first"; // a String
+    private static final Object SECOND = 2; // an Integer
+    private static final Object[] IMPLEMENTATIONS = {FIRST, SECOND};
+
+    @Test
+    public void testPriority()
+    {
+        SelectionStrategy strategy = new PriorityStrategy();
+        assertTrue(strategy.isFixed());
+        for (int i = 0; i < 4; i++)
+        {
+            assertSame(FIRST, strategy.select(IMPLEMENTATIONS));
+        }
+    }
+
+    @Test
+    public void testRoundRobin()
+    {
+        SelectionStrategy strategy = new RoundRobinStrategy();
+        assertFalse(strategy.isFixed());
+        assertSame(FIRST, strategy.select(IMPLEMENTATIONS));
+        assertSame(SECOND, strategy.select(IMPLEMENTATIONS));
+        assertSame(FIRST, strategy.select(IMPLEMENTATIONS));
+    }
+
+    @Test
+    public void testWeightedRoundRobin()
+    {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put(String.class.getName(), 3);
+        SelectionStrategy strategy = new RoundRobinStrategy(weights);
+        int first = 0;
+        for (int i = 0; i < 40; i++)
+        {
+            if (strategy.select(IMPLEMENTATIONS) == FIRST)
+            {
+                first++;
+            }
+        }
+        assertEquals(30, first);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroWeight()
+    {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put(String.class.getName(), 0);
+        new RoundRobinStrategy(weights);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeWeight()
+    {
+        Map<String, Integer> weights = new HashMap<String, Integer>();
+        weights.put(Integer.class.getName(), -1);
+        new RoundRobinStrategy(weights);
+    }
+
+    @Test
+    public void testLatencyAware()
+    {
+        LatencyAwareStrategy strategy = new LatencyAwareStrategy();
+        assertTrue(strategy.isObserving());
+        strategy.update(IMPLEMENTATIONS);
+        strategy.completed(FIRST, 1000, false);
+        strategy.completed(SECOND, 10, false);
+        assertEquals(10, strategy.getLatency(SECOND));
+
+        int second = 0;
+        for (int i = 0; i < 64; i++)
+        {
+            if (strategy.select(IMPLEMENTATIONS) == SECOND)
+            {
+                second++;
+            }
+        }
+        assertEquals(63, second); // Only the first exploring call goes to the slower implementation
+
+        for (int i = 0; i < 64; i++)
+        {
+            strategy.completed(SECOND, 200, true); // Failures count as ten times as slow
+        }
+        assertTrue(strategy.getLatency(SECOND) > strategy.getLatency(FIRST));
+        assertSame(FIRST, strategy.select(IMPLEMENTATIONS));
+    }
+
+    @Test
+    public void testLatencyAwareTriesUnobserved()
+    {
+        LatencyAwareStrategy strategy = new LatencyAwareStrategy();
+        strategy.update(IMPLEMENTATIONS);
+        strategy.select(IMPLEMENTATIONS); // exploring call
+        strategy.completed(FIRST, 1000, false);
+        assertSame(SECOND, strategy.select(IMPLEMENTATIONS));
+    }
+}